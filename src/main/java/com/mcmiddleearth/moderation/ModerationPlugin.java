@@ -20,12 +20,16 @@ import com.mcmiddleearth.moderation.command.ModerationPluginCommand;
 import com.mcmiddleearth.moderation.command.handler.ReportCommandHandler;
 import com.mcmiddleearth.moderation.command.handler.WatchlistCommandHandler;
 import com.mcmiddleearth.moderation.configuration.ModerationConfig;
+import com.mcmiddleearth.moderation.listener.LuckPermsListener;
 import com.mcmiddleearth.moderation.listener.WatchlistListener;
+import com.mcmiddleearth.moderation.util.DiscordDispatcher;
+import com.mcmiddleearth.moderation.util.DiscordOutbox;
 import com.mcmiddleearth.moderation.watchlist.WatchlistManager;
 import com.mojang.brigadier.CommandDispatcher;
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.ComponentBuilder;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.event.TabCompleteEvent;
@@ -37,6 +41,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Level;
@@ -60,6 +65,13 @@ public class ModerationPlugin extends Plugin implements Listener {
 
     private static WatchlistManager watchlistManager;
 
+    private WatchlistListener watchlistListener;
+
+    private static ModeratorRegistry moderators;
+    private static DiscordDispatcher discordDispatcher;
+    private DiscordOutbox discordOutbox;
+    private LuckPermsListener luckPermsListener;
+
     @Override
     public void onEnable() {
         instance = this;
@@ -67,6 +79,11 @@ public class ModerationPlugin extends Plugin implements Listener {
         saveDefaultConfig();
         config = new ModerationConfig(configFile);
 
+        discordOutbox = new DiscordOutbox(new File(getDataFolder(), "discord-outbox.dat"),
+                                          config.getDiscordOutboxSize());
+        ProxyServer.getInstance().getPluginManager().registerListener(this, discordOutbox);
+        discordDispatcher = new DiscordDispatcher(discordOutbox);
+
         commands.add(new ModerationPluginCommand(commandDispatcher,
                 new WatchlistCommandHandler("watchlist", commandDispatcher)));
         commands.add(new ModerationPluginCommand(commandDispatcher,
@@ -75,15 +92,37 @@ public class ModerationPlugin extends Plugin implements Listener {
         commands.forEach(command -> ProxyServer.getInstance().getPluginManager()
                 .registerCommand(this, command));
 
+        moderators = new ModeratorRegistry();
+        ProxyServer.getInstance().getPluginManager().registerListener(this, moderators);
+        if(ProxyServer.getInstance().getPluginManager().getPlugin("LuckPerms") != null) {
+            luckPermsListener = new LuckPermsListener(moderators);
+        }
+
         //Listener for tab complete
         ProxyServer.getInstance().getPluginManager().registerListener(this,this);
-        ProxyServer.getInstance().getPluginManager().registerListener(this, new WatchlistListener());
+        watchlistListener = new WatchlistListener();
+        ProxyServer.getInstance().getPluginManager().registerListener(this, watchlistListener);
         watchlistManager = new WatchlistManager();
     }
 
     @Override
     public void onDisable() {
         //maybe TODO: e.g. cancel scheduled tasks.
+        if(luckPermsListener != null) {
+            luckPermsListener.close();
+        }
+        if(watchlistListener != null) {
+            watchlistListener.shutdown();
+        }
+        if(watchlistManager != null) {
+            watchlistManager.shutdown();
+        }
+        if(discordDispatcher != null) {
+            discordDispatcher.shutdown();
+        }
+        if(discordOutbox != null) {
+            discordOutbox.close();
+        }
     }
 
     @SuppressWarnings("unused")
@@ -124,15 +163,44 @@ public class ModerationPlugin extends Plugin implements Listener {
         }
     }
 
+    private static final BaseComponent[] INFO_PREFIX = new ComponentBuilder("[Mod]").color(Style.MOD)
+                                                                   .append(" ").color(Style.INFO).create();
+    private static final BaseComponent[] ERROR_PREFIX = new ComponentBuilder("[Mod]").color(Style.MOD)
+                                                                    .append(" ").color(Style.ERROR).create();
+
     public static void sendInfo(CommandSender recipient, ComponentBuilder message) {
-        ComponentBuilder result = new ComponentBuilder("[Mod]").color(Style.MOD).append(" ").color(Style.INFO);
-        result.append(message.create());
-        recipient.sendMessage(result.create());
+        recipient.sendMessage(renderInfo(message));
     }
     public static void sendError(CommandSender recipient, ComponentBuilder message) {
-        ComponentBuilder result = new ComponentBuilder("[Mod]").color(Style.MOD).append(" ").color(Style.ERROR);
-        result.append(message.create());
-        recipient.sendMessage(result.create());
+        recipient.sendMessage(renderError(message));
+    }
+
+    /**
+     * Sends the same rendered message to all recipients.
+     * @param recipients players or console to send the message to
+     * @param message info message without prefix
+     */
+    public static void broadcastInfo(Collection<? extends CommandSender> recipients, ComponentBuilder message) {
+        broadcastInfo(recipients, message, null);
+    }
+    public static void broadcastInfo(Collection<? extends CommandSender> recipients, ComponentBuilder message,
+                                     CommandSender except) {
+        if(recipients.isEmpty()) {
+            return;
+        }
+        BaseComponent[] components = renderInfo(message);
+        for(CommandSender recipient: recipients) {
+            if(!recipient.equals(except)) {
+                recipient.sendMessage(components);
+            }
+        }
+    }
+
+    public static BaseComponent[] renderInfo(ComponentBuilder message) {
+        return new ComponentBuilder(INFO_PREFIX).append(message.create()).create();
+    }
+    public static BaseComponent[] renderError(ComponentBuilder message) {
+        return new ComponentBuilder(ERROR_PREFIX).append(message.create()).create();
     }
 
 
@@ -148,6 +216,14 @@ public class ModerationPlugin extends Plugin implements Listener {
         return watchlistManager;
     }
 
+    public static DiscordDispatcher getDiscordDispatcher() {
+        return discordDispatcher;
+    }
+
+    public static ModeratorRegistry getModerators() {
+        return moderators;
+    }
+
     public static boolean isOnWatchlist(ProxiedPlayer player) {
         return getWatchlistManager().isOnWatchlist(player.getName());
     }
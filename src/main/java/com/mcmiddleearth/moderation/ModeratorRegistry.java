@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation;
+
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import net.md_5.bungee.event.EventPriority;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps for each notification permission the set of online players who have it, so notifications don't need to
+ * check the permission of every online player. The sets are updated when a player joins or leaves and when
+ * LuckPerms recalculates the permissions of a player.
+ */
+
+public class ModeratorRegistry implements Listener {
+
+    private static final String[] TRACKED_PERMISSIONS = new String[]{Permission.SEE_WATCHLIST, Permission.SEE_REPORT};
+
+    private final Map<String, Set<ProxiedPlayer>> recipients = new ConcurrentHashMap<>();
+
+    public ModeratorRegistry() {
+        for(String permission: TRACKED_PERMISSIONS) {
+            recipients.put(permission, ConcurrentHashMap.newKeySet());
+        }
+        ProxyServer.getInstance().getPlayers().forEach(this::update);
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void playerLogin(PostLoginEvent event) {
+        update(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void playerLeave(PlayerDisconnectEvent event) {
+        remove(event.getPlayer());
+    }
+
+    /**
+     * Checks the tracked permissions of a player again.
+     * @param player online player
+     */
+    public void update(ProxiedPlayer player) {
+        recipients.forEach((permission, players) -> {
+            if(player.hasPermission(permission)) {
+                players.add(player);
+            } else {
+                players.remove(player);
+            }
+        });
+        // permission recalculation may run concurrently with the disconnect of the player
+        if(ProxyServer.getInstance().getPlayer(player.getUniqueId()) != player) {
+            remove(player);
+        }
+    }
+
+    public void remove(ProxiedPlayer player) {
+        recipients.values().forEach(players -> players.remove(player));
+    }
+
+    /**
+     * @param permission permission to filter online players
+     * @return online players with the permission, permissions that are not tracked are checked for each player
+     */
+    public Collection<ProxiedPlayer> getRecipients(String permission) {
+        Set<ProxiedPlayer> players = recipients.get(permission);
+        if(players != null) {
+            return Collections.unmodifiableSet(players);
+        }
+        return ProxyServer.getInstance().getPlayers().stream()
+                .filter(player -> player.hasPermission(permission))
+                .collect(Collectors.toList());
+    }
+}
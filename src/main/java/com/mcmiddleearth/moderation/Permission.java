@@ -16,6 +16,10 @@
  */
 package com.mcmiddleearth.moderation;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  *
  * @author Eriol_Eandur
@@ -32,4 +36,11 @@ public class Permission {
     public static final String SEE_REPORT = "mcmemoderation.report.see";
     public static final String SEND_REPORT = "mcmemoderation.report";
 
+    /**
+     * Permissions checked by the requirements of command nodes. Command help is cached per combination of these
+     * permissions, add new permissions used in a requirement here.
+     */
+    public static final List<String> COMMAND_PERMISSIONS = Collections.unmodifiableList(Arrays.asList(
+            WATCHLIST, SEE_WATCHLIST, ADD_WATCHLIST, REMOVE_WATCHLIST, SEND_REPORT));
+
 }
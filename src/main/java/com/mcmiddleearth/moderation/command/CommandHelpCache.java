@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.command;
+
+import com.mcmiddleearth.moderation.Permission;
+import com.mcmiddleearth.moderation.Style;
+import com.mcmiddleearth.moderation.command.node.HelpfulNode;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.chat.HoverEvent;
+import net.md_5.bungee.api.chat.hover.content.Text;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Precompiled help of a command tree. Color, tooltip and help text of each node are prepared once when the command
+ * is registered. The usage suggestions below a node are resolved to their nodes once for each combination of
+ * permissions of the command sender and reused for all later help messages.
+ * <p>
+ * Command requirements must only depend on the permissions passed to the constructor, usually
+ * {@link Permission#COMMAND_PERMISSIONS}, and on the sender being a player or the console.
+ */
+
+public class CommandHelpCache {
+
+    private static final Pattern USAGE_DECORATION = Pattern.compile("[()\\[\\]<>]");
+
+    private static final NodeHelp UNKNOWN_NODE = new NodeHelp(Style.ARGUMENT, null, null);
+
+    private final CommandDispatcher<CommandSender> commandDispatcher;
+
+    private final String[] permissions;
+
+    private final Map<CommandNode<CommandSender>, NodeHelp> nodes = new IdentityHashMap<>();
+
+    private final Map<UsageKey, List<Usage>> usages = new ConcurrentHashMap<>();
+
+    /**
+     * @param permissions all permissions checked by the requirements of the command tree, at most 63
+     */
+    public CommandHelpCache(CommandDispatcher<CommandSender> commandDispatcher, CommandNode<CommandSender> root,
+                            Collection<String> permissions) {
+        if(permissions.size() > 63) {
+            throw new IllegalArgumentException("Too many command permissions: " + permissions.size());
+        }
+        this.commandDispatcher = commandDispatcher;
+        this.permissions = permissions.toArray(new String[0]);
+        compile(root);
+    }
+
+    private void compile(CommandNode<CommandSender> node) {
+        if(node == null || nodes.containsKey(node)) {
+            return;
+        }
+        nodes.put(node, createNodeHelp(node));
+        node.getChildren().forEach(this::compile);
+        compile(node.getRedirect());
+    }
+
+    private static NodeHelp createNodeHelp(CommandNode<CommandSender> node) {
+        ChatColor color = (node instanceof LiteralCommandNode ? Style.LITERAL : Style.ARGUMENT);
+        if(node instanceof HelpfulNode) {
+            HoverEvent hover = new HoverEvent(HoverEvent.Action.SHOW_TEXT,
+                    new Text(new ComponentBuilder(((HelpfulNode) node).getTooltip()).color(Style.TOOLTIP).create()));
+            String helpText = ((HelpfulNode) node).getHelpText();
+            return new NodeHelp(color, hover, (helpText.equals("") ? null : helpText));
+        }
+        return new NodeHelp(color, null, null);
+    }
+
+    /**
+     * @param node node of the command tree, nodes not belonging to the compiled tree are prepared on every call
+     * @return color, tooltip and help text of the node
+     */
+    public NodeHelp getNodeHelp(CommandNode<CommandSender> node) {
+        if(node == null) {
+            return UNKNOWN_NODE;
+        }
+        NodeHelp help = nodes.get(node);
+        return (help != null ? help : createNodeHelp(node));
+    }
+
+    /**
+     * @param node last parsed node of a command
+     * @param sender command sender
+     * @return possible continuations of the command which the sender may use
+     */
+    public List<Usage> getUsages(CommandNode<CommandSender> node, CommandSender sender) {
+        return usages.computeIfAbsent(new UsageKey(node, getFingerprint(sender)),
+                key -> compileUsages(node, sender));
+    }
+
+    private List<Usage> compileUsages(CommandNode<CommandSender> parsedNode, CommandSender sender) {
+        List<Usage> result = new ArrayList<>();
+        for(String smartUsage: commandDispatcher.getSmartUsage(parsedNode, sender).values()) {
+            List<UsagePart> parts = new ArrayList<>();
+            String helpText = null;
+            CommandNode<CommandSender> node = parsedNode;
+            CommandNode<CommandSender> lastNode = parsedNode;
+            for(String possibleNode: smartUsage.replace('|', ' ').split(" ")) {
+                String name = USAGE_DECORATION.matcher(possibleNode).replaceAll("");
+                CommandNode<CommandSender> temp = node;
+                node = getChild(node, name);
+                if(node == null) {
+                    node = getChild(lastNode, name);
+                } else {
+                    lastNode = temp;
+                }
+                NodeHelp nodeHelp = getNodeHelp(node);
+                parts.add(new UsagePart(" " + possibleNode, nodeHelp));
+                if(nodeHelp.getHelpText() != null) {
+                    helpText = nodeHelp.getHelpText();
+                }
+            }
+            result.add(new Usage(Collections.unmodifiableList(parts), helpText));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static CommandNode<CommandSender> getChild(CommandNode<CommandSender> node, String name) {
+        return (node != null ? node.getChild(name) : null);
+    }
+
+    private long getFingerprint(CommandSender sender) {
+        long fingerprint = (sender instanceof ProxiedPlayer ? 1 : 0);
+        for(int i = 0; i < permissions.length; i++) {
+            if(sender.hasPermission(permissions[i])) {
+                fingerprint |= 1L << (i + 1);
+            }
+        }
+        return fingerprint;
+    }
+
+    public static class NodeHelp {
+
+        private final ChatColor color;
+        private final HoverEvent hover;
+        private final String helpText;
+
+        private NodeHelp(ChatColor color, HoverEvent hover, String helpText) {
+            this.color = color;
+            this.hover = hover;
+            this.helpText = helpText;
+        }
+
+        public ChatColor getColor() {
+            return color;
+        }
+
+        /**
+         * @return tooltip of the node or null
+         */
+        public HoverEvent getHover() {
+            return hover;
+        }
+
+        /**
+         * @return help text of the node or null
+         */
+        public String getHelpText() {
+            return helpText;
+        }
+    }
+
+    public static class Usage {
+
+        private final List<UsagePart> parts;
+        private final String helpText;
+
+        private Usage(List<UsagePart> parts, String helpText) {
+            this.parts = parts;
+            this.helpText = helpText;
+        }
+
+        public List<UsagePart> getParts() {
+            return parts;
+        }
+
+        /**
+         * @return help text of the last helpful node of this usage or null
+         */
+        public String getHelpText() {
+            return helpText;
+        }
+    }
+
+    public static class UsagePart {
+
+        private final String text;
+        private final NodeHelp help;
+
+        public UsagePart(String text, NodeHelp help) {
+            this.text = text;
+            this.help = help;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public NodeHelp getHelp() {
+            return help;
+        }
+    }
+
+    private static class UsageKey {
+
+        private final CommandNode<CommandSender> node;
+        private final long fingerprint;
+
+        private UsageKey(CommandNode<CommandSender> node, long fingerprint) {
+            this.node = node;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof UsageKey)) {
+                return false;
+            }
+            return node == ((UsageKey) other).node && fingerprint == ((UsageKey) other).fingerprint;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(node) * 31 + Long.hashCode(fingerprint);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.mcmiddleearth.moderation.command;
 
 import com.google.common.base.Joiner;
 import com.mcmiddleearth.moderation.ModerationPlugin;
+import com.mcmiddleearth.moderation.Permission;
 import com.mcmiddleearth.moderation.Style;
 import com.mcmiddleearth.moderation.command.handler.AbstractCommandHandler;
 import com.mcmiddleearth.moderation.command.node.HelpfulNode;
@@ -9,9 +10,7 @@ import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.ParseResults;
 import com.mojang.brigadier.context.ParsedCommandNode;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
-import com.mojang.brigadier.suggestion.Suggestion;
 import com.mojang.brigadier.tree.CommandNode;
-import com.mojang.brigadier.tree.LiteralCommandNode;
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.chat.ComponentBuilder;
@@ -22,18 +21,25 @@ import net.md_5.bungee.api.event.TabCompleteEvent;
 import net.md_5.bungee.api.plugin.Command;
 
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class ModerationPluginCommand extends Command {
 
+    private static final HoverEvent EMPTY_HOVER = new HoverEvent(HoverEvent.Action.SHOW_TEXT,
+                                                                 new Text(new ComponentBuilder().create()));
+
     private final CommandDispatcher<CommandSender> commandDispatcher;
 
+    private final CommandHelpCache helpCache;
+
+    private final TabCompleter tabCompleter;
+
     public ModerationPluginCommand(CommandDispatcher<CommandSender> commandDispatcher, AbstractCommandHandler handler) {
         super(handler.getCommand());
         this.commandDispatcher = commandDispatcher;
+        helpCache = new CommandHelpCache(commandDispatcher, commandDispatcher.getRoot().getChild(handler.getCommand()),
+                                         Permission.COMMAND_PERMISSIONS);
+        tabCompleter = new TabCompleter(commandDispatcher, ModerationPlugin.getConfig().getTabCompleteInterval());
     }
 
     @Override
@@ -64,12 +70,8 @@ public class ModerationPluginCommand extends Command {
                         helpMessage = new ComponentBuilder("Invalid command syntax.").color(Style.ERROR);
                     }
                     CommandNode<CommandSender> parsedNode = result.getContext().getNodes().get(result.getContext().getNodes().size() - 1).getNode();
-//Logger.getGlobal().info("Parsed Node:");
-//printTree(parsedNode);
-                    Collection<CommandNode<CommandSender>> children = (result.getContext().getNodes().isEmpty()?new ArrayList<>():parsedNode.getChildren()
-                            .stream().filter(node -> node.canUse(result.getContext().getSource())).collect(Collectors.toList()));
-                    Map<CommandNode<CommandSender>,String> use = commandDispatcher.getSmartUsage(parsedNode,result.getContext().getSource());
-                    if (children.isEmpty()) {
+                    List<CommandHelpCache.Usage> usages = helpCache.getUsages(parsedNode, result.getContext().getSource());
+                    if (usages.isEmpty()) {
                         if (result.getContext().getCommand() == null) {
                             helpMessage.append(" Maybe you don't have permission.");
                         } else if(!help) {
@@ -79,58 +81,27 @@ public class ModerationPluginCommand extends Command {
                         if(!help) {
                             helpMessage.append(" Maybe you want to do:");
                         }
-                        for(Map.Entry<CommandNode<CommandSender>,String> entry: use.entrySet()) {
-                            String usageMessage = "";
-                            helpMessage.append("\n").color(Style.INFO);
-                            String[] visitedNodes = parsedCommand.split(" ");
-                            Iterator<ParsedCommandNode<CommandSender>> iterator = result.getContext().getNodes().listIterator();
-                            for (String visitedNode : visitedNodes) {
-                                helpMessage.append(" "+visitedNode);
-                                ParsedCommandNode<CommandSender> node = iterator.next();
-//Logger.getGlobal().info("Visited Node:");
-//printTree(node.getNode());
-                                helpMessage.color((node.getNode() instanceof LiteralCommandNode?Style.LITERAL:Style.ARGUMENT));
-                                if ((node.getNode() instanceof HelpfulNode)) {
-                                    helpMessage.event(new HoverEvent(HoverEvent.Action.SHOW_TEXT,
-                                            new Text(new ComponentBuilder(((HelpfulNode) node.getNode()).getTooltip())
-                                                    .color(Style.TOOLTIP).create())));
-                                    if(!((HelpfulNode) node.getNode()).getHelpText().equals("")) {
-                                        usageMessage = ((HelpfulNode) node.getNode()).getHelpText();
-                                    }
-                                } else {
-                                    helpMessage.event((HoverEvent)null);
+                        // the typed part of the command is the same for all usages
+                        List<CommandHelpCache.UsagePart> visitedParts = new ArrayList<>();
+                        String visitedHelpText = null;
+                        Iterator<ParsedCommandNode<CommandSender>> iterator = result.getContext().getNodes().listIterator();
+                        CommandHelpCache.NodeHelp nodeHelp = helpCache.getNodeHelp(null);
+                        for (String visitedNode : parsedCommand.split(" ")) {
+                            if(iterator.hasNext()) {
+                                nodeHelp = helpCache.getNodeHelp(iterator.next().getNode());
+                                if(nodeHelp.getHelpText() != null) {
+                                    visitedHelpText = nodeHelp.getHelpText();
                                 }
                             }
-                            String[] possibleNodes = entry.getValue().replace('|', ' ').split(" ");
-                            CommandNode<CommandSender> node = parsedNode;
-                            CommandNode<CommandSender> lastNode = parsedNode;
-                            for(String possibleNode: possibleNodes) {
-//Logger.getLogger(ModerationPluginCommand.class.getSimpleName()).info("possible node "+possibleNode);
-                                helpMessage.append(" "+possibleNode);
-                                CommandNode<CommandSender> temp = node;
-                                node = findDirectChild(node, possibleNode.replaceAll("[()\\[\\]<>]",""));
-                                if(node==null) {
-                                    node = findDirectChild(lastNode, possibleNode.replaceAll("[()\\[\\]<>]",""));
-                                } else {
-                                    lastNode = temp;
-                                }
-//Logger.getGlobal().info("possible Node:");
-//printTree(node);
-                                helpMessage.color((node instanceof LiteralCommandNode?Style.LITERAL:Style.ARGUMENT));
-                                if ((node instanceof HelpfulNode)) {
-                                    helpMessage.event(new HoverEvent(HoverEvent.Action.SHOW_TEXT,
-                                            new Text(new ComponentBuilder(((HelpfulNode) node).getTooltip())
-                                                    .color(Style.TOOLTIP).create())));
-                                    if(!((HelpfulNode) node).getHelpText().equals("")) {
-                                        usageMessage = ((HelpfulNode) node).getHelpText();
-                                    }
-                                } else {
-                                    helpMessage.event((HoverEvent) null);
-                                }
-                            }
-                            if(!usageMessage.equals("")) {
-                                helpMessage.append(" : "+usageMessage).color(Style.HELP)
-                                           .event(new HoverEvent(HoverEvent.Action.SHOW_TEXT,new Text(new ComponentBuilder().create())));
+                            visitedParts.add(new CommandHelpCache.UsagePart(" "+visitedNode, nodeHelp));
+                        }
+                        for(CommandHelpCache.Usage usage: usages) {
+                            helpMessage.append("\n").color(Style.INFO);
+                            appendParts(helpMessage, visitedParts);
+                            appendParts(helpMessage, usage.getParts());
+                            String usageMessage = (usage.getHelpText() != null ? usage.getHelpText() : visitedHelpText);
+                            if(usageMessage != null) {
+                                helpMessage.append(" : "+usageMessage).color(Style.HELP).event(EMPTY_HOVER);
                             }
                         }
                     }
@@ -150,37 +121,22 @@ public class ModerationPluginCommand extends Command {
 
     public void onTabComplete(TabCompleteEvent event) {
         if (event.getSender() instanceof CommandSender) {
-            try {
-                ParseResults<CommandSender> result = commandDispatcher.parse(event.getCursor().substring(1), (ProxiedPlayer) event.getSender());
-                if(result.getContext().getNodes().isEmpty()) {
-                    return;
-                }
-                List<Suggestion> completionSuggestions
-                        = commandDispatcher.getCompletionSuggestions(result).get().getList();
-                if(completionSuggestions.isEmpty()) {
-                    event.setCancelled(true);
-                } else {
-                    event.getSuggestions().addAll(completionSuggestions.stream().map(Suggestion::getText).collect(Collectors.toList()));
-                }
-            } catch (InterruptedException | ExecutionException e) {
-                Logger.getLogger(ModerationPlugin.class.getSimpleName()).log(Level.WARNING,"Command tab complete error.",e);
+            List<String> suggestions = tabCompleter.complete((ProxiedPlayer) event.getSender(), event.getCursor().substring(1));
+            if(suggestions == null) {
+                return;
+            }
+            if(suggestions.isEmpty()) {
+                event.setCancelled(true);
+            } else {
+                event.getSuggestions().addAll(suggestions);
             }
         }
     }
 
-    private CommandNode<CommandSender> findDirectChild(CommandNode<CommandSender> root, String name) {
-//Logger.getLogger(ModerationPluginCommand.class.getSimpleName()).info("find node "+name);
-        //if(root.getName().equals(name)) {
-        //    return root;
-        //} else {
-            for(CommandNode<CommandSender> node: root.getChildren()) {
-                //CommandNode<CommandSender> found = findNode(node,name);
-                if(node.getName().equals(name)) {//found != null) {
-                    return node;//found;
-                }
-            }
-        //}
-        return null;
+    private static void appendParts(ComponentBuilder message, List<CommandHelpCache.UsagePart> parts) {
+        for(CommandHelpCache.UsagePart part: parts) {
+            message.append(part.getText()).color(part.getHelp().getColor()).event(part.getHelp().getHover());
+        }
     }
 
     private void printTree(CommandNode<CommandSender> node) {
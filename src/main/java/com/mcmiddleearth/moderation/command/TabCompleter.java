@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.command;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mcmiddleearth.moderation.ModerationPlugin;
+import com.mcmiddleearth.moderation.command.argument.AbstractPlayerArgumentType;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.ParseResults;
+import com.mojang.brigadier.context.StringRange;
+import com.mojang.brigadier.suggestion.Suggestion;
+import com.mojang.brigadier.suggestion.Suggestions;
+import net.md_5.bungee.api.CommandSender;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Tab completion which never waits on the network thread. The last parsed input and its suggestions are kept for
+ * each sender. If the sender only typed further characters of the same word, the kept suggestions are filtered
+ * instead of parsing the command again, unless the kept suggestions were cut at the maximum number of player
+ * suggestions. Full parses of a sender are limited to one per minimum interval, further requests are not answered.
+ * Suggestions which are not ready immediately are kept and answer the next request for the same input.
+ */
+
+public class TabCompleter {
+
+    private final CommandDispatcher<CommandSender> commandDispatcher;
+
+    private final long minInterval;
+
+    private final Cache<CommandSender, SenderState> states = CacheBuilder.newBuilder()
+            .weakKeys().expireAfterAccess(5, TimeUnit.MINUTES).build();
+
+    /**
+     * @param minInterval minimum milliseconds between two full parses of the same sender
+     */
+    public TabCompleter(CommandDispatcher<CommandSender> commandDispatcher, long minInterval) {
+        this.commandDispatcher = commandDispatcher;
+        this.minInterval = Math.max(0, minInterval);
+    }
+
+    /**
+     * @param sender player who requested completion
+     * @param input command line without leading slash
+     * @return the suggestions, or null if the input is not a command of this plugin, the sender exceeded the rate
+     *         limit or the suggestions are not ready yet
+     */
+    public List<String> complete(CommandSender sender, String input) {
+        SenderState state;
+        try {
+            state = states.get(sender, SenderState::new);
+        } catch (ExecutionException ex) {
+            state = new SenderState();
+        }
+        synchronized(state) {
+            if(input.equals(state.input)) {
+                return state.getSuggestions();
+            }
+            if(state.canExtend(input)) {
+                state.extend(input);
+                return state.getSuggestions();
+            }
+            long now = System.currentTimeMillis();
+            if(now - state.lastParse < minInterval) {
+                return null;
+            }
+            state.lastParse = now;
+            ParseResults<CommandSender> result = commandDispatcher.parse(input, sender);
+            state.input = input;
+            state.unknownCommand = result.getContext().getNodes().isEmpty();
+            state.suggestions = null;
+            if(!state.unknownCommand) {
+                CompletableFuture<Suggestions> future = commandDispatcher.getCompletionSuggestions(result);
+                SenderState finalState = state;
+                future.whenComplete((suggestions, ex) -> {
+                    if(ex != null) {
+                        Logger.getLogger(ModerationPlugin.class.getSimpleName()).log(Level.WARNING, "Command tab complete error.", ex);
+                        return;
+                    }
+                    synchronized(finalState) {
+                        if(input.equals(finalState.input)) {
+                            finalState.suggestions = suggestions;
+                        }
+                    }
+                });
+            }
+            return state.getSuggestions();
+        }
+    }
+
+    private static class SenderState {
+
+        private String input;
+        private boolean unknownCommand;
+        private Suggestions suggestions;
+        private long lastParse;
+
+        private List<String> getSuggestions() {
+            if(unknownCommand) {
+                return null;
+            }
+            if(suggestions == null) {
+                return null;
+            }
+            return suggestions.getList().stream().map(Suggestion::getText).collect(Collectors.toList());
+        }
+
+        /**
+         * Suggestions of the argument types of this plugin only depend on the typed beginning of the word. A list
+         * with the maximum number of player suggestions may be cut and misses names matching a longer prefix.
+         */
+        private boolean canExtend(String newInput) {
+            if(input == null || suggestions == null || !newInput.startsWith(input)
+                    || suggestions.getList().size() >= AbstractPlayerArgumentType.MAX_SUGGESTIONS
+                    || suggestions.getRange().getEnd() != input.length()) {
+                return false;
+            }
+            return newInput.indexOf(' ', input.length()) < 0;
+        }
+
+        private void extend(String newInput) {
+            int start = suggestions.getRange().getStart();
+            String typed = newInput.substring(start).toLowerCase();
+            List<Suggestion> filtered = suggestions.getList().stream()
+                    .filter(suggestion -> suggestion.getText().toLowerCase().startsWith(typed))
+                    .collect(Collectors.toList());
+            input = newInput;
+            suggestions = new Suggestions(StringRange.between(start, newInput.length()), filtered);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -34,6 +35,11 @@ import java.util.concurrent.CompletableFuture;
 
 public abstract class AbstractPlayerArgumentType implements ArgumentType<String>,  HelpfulArgumentType {
 
+    /**
+     * Maximum number of player names suggested for tab completion.
+     */
+    public static final int MAX_SUGGESTIONS = 100;
+
     private String tooltip;
 
     @Override
@@ -48,19 +54,22 @@ public abstract class AbstractPlayerArgumentType implements ArgumentType<String>
 
     @Override
     public <S> CompletableFuture<Suggestions> listSuggestions(final CommandContext<S> context, final SuggestionsBuilder builder) {
-        for (String option : getPlayerSuggestions()) {
-            if (option.toLowerCase().startsWith(builder.getRemaining().toLowerCase())) {
-                if(tooltip == null) {
-                    builder.suggest(option);
-                } else {
-                    builder.suggest(option, new LiteralMessage(tooltip));
-                }
+        for (String option : getPlayerSuggestions(builder.getRemaining(), MAX_SUGGESTIONS)) {
+            if(tooltip == null) {
+                builder.suggest(option);
+            } else {
+                builder.suggest(option, new LiteralMessage(tooltip));
             }
         }
         return builder.buildFuture();
     }
 
-    protected abstract Collection<String> getPlayerSuggestions();
+    /**
+     * @param prefix start of the player name in any case
+     * @param limit maximum number of suggestions
+     * @return names of matching players, sorted case insensitive
+     */
+    protected abstract List<String> getPlayerSuggestions(String prefix, int limit);
 
     @Override
     public void setTooltip(String tooltip) {
@@ -17,11 +17,9 @@
 package com.mcmiddleearth.moderation.command.argument;
 
 import com.mcmiddleearth.moderation.ModerationPlugin;
-import net.md_5.bungee.api.ProxyServer;
-import net.md_5.bungee.api.connection.ProxiedPlayer;
+import com.mcmiddleearth.moderation.watchlist.PlayerNameIndex;
 
-import java.util.Collection;
-import java.util.stream.Collectors;
+import java.util.List;
 
 /**
  * @author Eriol_Eandur
@@ -29,11 +27,9 @@ import java.util.stream.Collectors;
 
 public class OfflinePlayerArgumentType extends AbstractPlayerArgumentType {
 
-    protected Collection<String> getPlayerSuggestions() {
-        Collection<String> result = ProxyServer.getInstance().getPlayers().stream().map(ProxiedPlayer::getName).collect(Collectors.toSet());
-        result.addAll(ModerationPlugin.getWatchlistManager().getKnownPlayers().keySet());
-        result.addAll(ModerationPlugin.getWatchlistManager().getWatchlist().keySet());
-        return result.stream().sorted().collect(Collectors.toList());
+    @Override
+    protected List<String> getPlayerSuggestions(String prefix, int limit) {
+        return ModerationPlugin.getWatchlistManager().getPlayerNames().complete(prefix, PlayerNameIndex.ALL, limit);
     }
 
 }
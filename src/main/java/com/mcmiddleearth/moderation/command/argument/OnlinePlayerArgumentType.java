@@ -16,6 +16,8 @@
  */
 package com.mcmiddleearth.moderation.command.argument;
 
+import com.mcmiddleearth.moderation.ModerationPlugin;
+import com.mcmiddleearth.moderation.watchlist.PlayerNameIndex;
 import com.mojang.brigadier.LiteralMessage;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
@@ -23,7 +25,7 @@ import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 
-import java.util.Collection;
+import java.util.List;
 import java.util.stream.Collectors;
 
 /**
@@ -43,8 +45,8 @@ public class OnlinePlayerArgumentType extends AbstractPlayerArgumentType {
     }
 
     @Override
-    protected Collection<String> getPlayerSuggestions() {
-        return ProxyServer.getInstance().getPlayers().stream().map(ProxiedPlayer::getName).collect(Collectors.toSet());
+    protected List<String> getPlayerSuggestions(String prefix, int limit) {
+        return ModerationPlugin.getWatchlistManager().getPlayerNames().complete(prefix, PlayerNameIndex.ONLINE, limit);
     }
 
 }
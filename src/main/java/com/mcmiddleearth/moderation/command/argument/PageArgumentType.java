@@ -28,7 +28,7 @@ import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
  * @author Eriol_Eandur
@@ -38,10 +38,13 @@ public class PageArgumentType implements ArgumentType<Integer>,  HelpfulArgument
 
     private String tooltip = "Number of page you want to see.";
 
-    private final Function<CommandContext, Collection<String>> listProvider;
+    private final ToIntFunction<CommandContext> listSizeProvider;
 
-    public PageArgumentType(Function<CommandContext, Collection<String>> listProvider) {
-        this.listProvider = listProvider;
+    /**
+     * @param listSizeProvider number of list items, should not need to build the list
+     */
+    public PageArgumentType(ToIntFunction<CommandContext> listSizeProvider) {
+        this.listSizeProvider = listSizeProvider;
     }
 
     @Override
@@ -64,7 +67,7 @@ public class PageArgumentType implements ArgumentType<Integer>,  HelpfulArgument
 
     @Override
     public <S> CompletableFuture<Suggestions> listSuggestions(final CommandContext<S> context, final SuggestionsBuilder builder) {
-        int maxPage = listProvider.apply(context).size() / 10 +1;
+        int maxPage = listSizeProvider.applyAsInt(context) / 10 +1;
         for (int i = 1; i <= maxPage; i++) {
             if ((""+i).toLowerCase().startsWith(builder.getRemaining().toLowerCase())) {
                 if(tooltip == null) {
@@ -26,7 +26,6 @@ import com.mcmiddleearth.moderation.command.builder.HelpfulRequiredArgumentBuild
 import com.mcmiddleearth.moderation.util.DiscordUtil;
 import com.mojang.brigadier.CommandDispatcher;
 import net.md_5.bungee.api.CommandSender;
-import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.chat.ComponentBuilder;
 
 /**
@@ -61,9 +60,7 @@ public class ReportCommandHandler extends AbstractCommandHandler {
                 .append("\nReason: ").color(Style.INFO).bold(false).italic(false)
                 .append(reason).color(Style.HELP);//.bold(true).italic(true);
         if(ModerationPlugin.getConfig().isReportSendIngame()) {
-            ProxyServer.getInstance().getPlayers().stream()
-                    .filter(moderator -> moderator.hasPermission(Permission.SEE_REPORT))
-                    .forEach(moderator -> ModerationPlugin.sendInfo(moderator,message));
+            ModerationPlugin.broadcastInfo(ModerationPlugin.getModerators().getRecipients(Permission.SEE_REPORT), message);
         }
         if(ModerationPlugin.getConfig().isReportAddToWatchlist()) {
             ModerationPlugin.getWatchlistManager().addWatchlist(player, commandSender, reason);
@@ -27,18 +27,19 @@ import com.mcmiddleearth.moderation.command.argument.ReasonArgumentType;
 import com.mcmiddleearth.moderation.command.builder.HelpfulLiteralBuilder;
 import com.mcmiddleearth.moderation.command.builder.HelpfulRequiredArgumentBuilder;
 import com.mcmiddleearth.moderation.util.DiscordUtil;
+import com.mcmiddleearth.moderation.watchlist.TimestampCodec;
+import com.mcmiddleearth.moderation.watchlist.WatchlistEntry;
 import com.mcmiddleearth.moderation.watchlist.WatchlistPlayerData;
 import com.mcmiddleearth.moderation.watchlist.WatchlistReason;
+import com.mcmiddleearth.moderation.watchlist.WatchlistSnapshot;
 import com.mojang.brigadier.CommandDispatcher;
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.CommandSender;
-import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.chat.ClickEvent;
 import net.md_5.bungee.api.chat.ComponentBuilder;
 import net.md_5.bungee.api.chat.HoverEvent;
 import net.md_5.bungee.api.chat.hover.content.Text;
 
-import java.text.DateFormat;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -52,6 +53,12 @@ import static com.mojang.brigadier.arguments.StringArgumentType.word;
 
 public class WatchlistCommandHandler extends AbstractCommandHandler {
 
+    /**
+     * Size of the last searched selection. Page suggestions are requested with each keystroke, the search is repeated
+     * only if the selection or the watchlist changed.
+     */
+    private volatile SelectionSize lastSelectionSize;
+
     public WatchlistCommandHandler(String name, CommandDispatcher<CommandSender> dispatcher) {
         super(name);
         dispatcher
@@ -73,8 +80,7 @@ public class WatchlistCommandHandler extends AbstractCommandHandler {
                     .executes(context -> viewList(context.getSource(), "all", 1))
 
                     .then(HelpfulRequiredArgumentBuilder.argument(("page"),
-                                         new PageArgumentType(context -> getWatchlistSelection("all")
-                                                                            .stream().map(Map.Entry::getKey).collect(Collectors.toList())))
+                                         new PageArgumentType(context -> getSelectionSize("all")))
                             .executes(context -> viewList(context.getSource(), "all", context.getArgument("page", Integer.class))))
 
                     .then(HelpfulRequiredArgumentBuilder.argument("selection", word())
@@ -84,8 +90,7 @@ public class WatchlistCommandHandler extends AbstractCommandHandler {
                         .executes(context -> viewList(context.getSource(), context.getArgument("selection", String.class), 1))
 
                         .then(HelpfulRequiredArgumentBuilder.argument(("page"),
-                                         new PageArgumentType(context -> getWatchlistSelection((String) context.getArgument("selection",String.class))
-                                                                                            .stream().map(Map.Entry::getKey).collect(Collectors.toList())))
+                                         new PageArgumentType(context -> getSelectionSize((String) context.getArgument("selection",String.class))))
                             .executes(context -> viewList(context.getSource(), context.getArgument("selection", String.class),
                                                                                context.getArgument("page", Integer.class))))))
 
@@ -120,9 +125,12 @@ public class WatchlistCommandHandler extends AbstractCommandHandler {
         WatchlistPlayerData data = ModerationPlugin.getWatchlistManager().getWatchlistData(showPlayer);
         if(data != null) {
             StringBuilder message = new StringBuilder("Watchlist reasons for " + Style.INFO_STRESSED + showPlayer + Style.INFO+":");
-            for(int i = 0; i < data.getReasons().size(); i++) {
-                WatchlistReason reason = data.getReasons().get(i);
-                message.append("\n[" + (i+1) + "] " + Style.INFO_LIGHT + DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, Locale.US).format(reason.getCreationTime()))
+            int i = 0;
+            for(WatchlistReason reason: data.getReasons()) {
+                i++;
+                String time = (reason.getUnparsedCreationTime() != null ? reason.getUnparsedCreationTime()
+                                                                        : TimestampCodec.display(reason.getCreationTime()));
+                message.append("\n[" + i + "] " + Style.INFO_LIGHT + time)
                        .append(Style.INFO + " (" + (reason.isByModerator() ? Style.MOD : Style.UNCONFIRMED) + "by "+reason.getInitiator())
                        .append(Style.INFO + ") " + reason.getDescription());
                 if (!reason.getNameAtCreationTime().equals(showPlayer)) {
@@ -137,7 +145,7 @@ public class WatchlistCommandHandler extends AbstractCommandHandler {
     }
 
     private int viewList(CommandSender commandSender, String group, Integer page) {
-        List<Map.Entry<String,WatchlistPlayerData>> displayList = getWatchlistSelection(group);
+        List<WatchlistEntry> displayList = getWatchlistSelection(group);
         String message;
         if(group.equals("all")) {
             message = ""+Style.INFO_STRESSED+ChatColor.BOLD+"All "+Style.INFO+"players on watchlist";
@@ -156,14 +164,14 @@ public class WatchlistCommandHandler extends AbstractCommandHandler {
         ComponentBuilder builder = new ComponentBuilder(message).append(" (page ");
         if(page > 1) {
             builder.append("<").color(Style.INFO_STRESSED).bold(true)
-                   .event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/watchlist list " + (page -1)))
+                   .event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/watchlist list " + group + " " + (page -1)))
                    .event(new HoverEvent(HoverEvent.Action.SHOW_TEXT, new Text(new ComponentBuilder("Click for previous page.")
                             .color(Style.TOOLTIP).create())));
         }
         builder.append(""+page).color(Style.INFO).bold(false);
         if(page < maxPage) {
             builder.append(">").color(Style.INFO_STRESSED).bold(true)
-                    .event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/watchlist list " + (page + 1)))
+                    .event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/watchlist list " + group + " " + (page + 1)))
                     .event(new HoverEvent(HoverEvent.Action.SHOW_TEXT, new Text(new ComponentBuilder("Click for next page.")
                             .color(Style.TOOLTIP).create())));
         }
@@ -172,17 +180,17 @@ public class WatchlistCommandHandler extends AbstractCommandHandler {
 //Logger.getGlobal().info("all: "+ModerationPlugin.getWatchlistManager().getWatchlist().size()+" Size: "+displayList.size());
             for (int i = (page-1) * 10; i < Math.min((page-1) * 10 + 10, displayList.size()); i++) {
 //Logger.getGlobal().info("Count: "+i);
-                String name = displayList.get(i).getKey();
-                UUID uuid = displayList.get(i).getValue().getUuid();
+                String name = displayList.get(i).getName();
+                UUID uuid = displayList.get(i).getUuid();
                 ChatColor color = Style.MOD;
-                if (displayList.get(i).getValue().isUuidUnknown()) {
+                if (displayList.get(i).isUuidUnknown()) {
                     name = name + " (unconfirmed)";
                     color = Style.UNCONFIRMED;
-                } else if(displayList.get(i).getValue().isNameUnknown()) {
+                } else if(displayList.get(i).isNameUnknown()) {
                     color = Style.WARNING;
                 }
                 builder.append("\n- ").color(Style.INFO)
-                        .append(name).color(color).event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/watchlist " + displayList.get(i).getKey()))
+                        .append(name).color(color).event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/watchlist " + displayList.get(i).getName()))
                         .event(new HoverEvent(HoverEvent.Action.SHOW_TEXT, new Text(new ComponentBuilder("Click for details.")
                                 .color(Style.TOOLTIP).create())))
                         .append(" "+(uuid!=null?uuid.toString():"unknown UUID")).color(Style.INFO);
@@ -194,23 +202,59 @@ public class WatchlistCommandHandler extends AbstractCommandHandler {
         return 0;
     }
 
-    private List<Map.Entry<String, WatchlistPlayerData>> getWatchlistSelection(String selection) {
-        Map<String,WatchlistPlayerData> watchlist = ModerationPlugin.getWatchlistManager().getWatchlist();
-        List<Map.Entry<String,WatchlistPlayerData>> selectionList;
+    /**
+     * @return selected entries sorted by lower case name. For selection 'all' the sorted list of the watchlist
+     *         snapshot is returned without copying or sorting.
+     */
+    private List<WatchlistEntry> getWatchlistSelection(String selection) {
+        // consistent view of the watchlist without blocking modifications
+        WatchlistSnapshot snapshot = ModerationPlugin.getWatchlistManager().getSnapshot();
+        List<WatchlistEntry> selectionList;
         if(selection.equals("all")) {
-            selectionList = watchlist.entrySet().stream().sorted(Comparator.comparing(entry -> entry.getKey().toLowerCase())).collect(Collectors.toList());
+            selectionList = snapshot.getSortedEntries();
         } else {
             if(selection.equals("online")) {
-                selectionList = watchlist.entrySet().stream().filter(entry -> ProxyServer.getInstance().getPlayer(entry.getKey())!=null)
-                        .sorted(Comparator.comparing(entry -> entry.getKey().toLowerCase())).collect(Collectors.toList());
+                selectionList = ModerationPlugin.getWatchlistManager().getOnlineWatchedPlayers().stream()
+                        .map(player -> snapshot.get(player.getName()))
+                        .filter(Objects::nonNull)
+                        .sorted(Comparator.comparing(entry -> entry.getName().toLowerCase())).collect(Collectors.toList());
             } else {
-                selectionList = watchlist.entrySet().stream().filter(entry -> entry.getKey().toLowerCase().contains(selection.toLowerCase()))
-                        .sorted(Comparator.comparing(entry -> entry.getKey().toLowerCase())).collect(Collectors.toList());
+                selectionList = ModerationPlugin.getWatchlistManager().searchWatchlist(selection);
             }
         }
         return selectionList;
     }
 
+    private int getSelectionSize(String selection) {
+        if(selection.equals("all")) {
+            return ModerationPlugin.getWatchlistManager().getSnapshot().size();
+        }
+        if(selection.equals("online")) {
+            return ModerationPlugin.getWatchlistManager().getOnlineWatchedCount();
+        }
+        // read before searching, a modification in between only causes another search
+        long version = ModerationPlugin.getWatchlistManager().getSnapshotVersion();
+        SelectionSize cached = lastSelectionSize;
+        if(cached == null || cached.version != version || !cached.selection.equals(selection)) {
+            cached = new SelectionSize(selection, version, getWatchlistSelection(selection).size());
+            lastSelectionSize = cached;
+        }
+        return cached.size;
+    }
+
+    private static final class SelectionSize {
+
+        private final String selection;
+        private final long version;
+        private final int size;
+
+        private SelectionSize(String selection, long version, int size) {
+            this.selection = selection;
+            this.version = version;
+            this.size = size;
+        }
+    }
+
     private int addPlayer(CommandSender commandSender, String addPlayer, String reason) {
         ModerationPlugin.getWatchlistManager().addWatchlist(addPlayer, commandSender, reason);
         ModerationPlugin.sendInfo(commandSender,new ComponentBuilder("Added "+Style.INFO_STRESSED+addPlayer
@@ -218,9 +262,7 @@ public class WatchlistCommandHandler extends AbstractCommandHandler {
         ComponentBuilder message = new ComponentBuilder(commandSender.getName()+" added "+Style.INFO_STRESSED+addPlayer
                                                                      +Style.INFO+" to watchlist for '"+reason+"'");
         if(ModerationPlugin.getConfig().isWatchlistSendIngame()) {
-            ProxyServer.getInstance().getPlayers().stream()
-                    .filter(moderator -> moderator.hasPermission(Permission.SEE_WATCHLIST) && !moderator.equals(commandSender))
-                    .forEach(moderator -> ModerationPlugin.sendInfo(moderator,message));
+            ModerationPlugin.broadcastInfo(ModerationPlugin.getModerators().getRecipients(Permission.SEE_WATCHLIST), message, commandSender);
         }
         if(ModerationPlugin.getConfig().isWatchlistSendDiscord()) {
             String discordChannel = ModerationPlugin.getConfig().getWatchlistDiscordChannel();
@@ -244,10 +286,10 @@ public class WatchlistCommandHandler extends AbstractCommandHandler {
     private int removeReason(CommandSender commandSender, String player, Integer reason) {
         WatchlistPlayerData data = ModerationPlugin.getWatchlistManager().getWatchlistData(player);
         if(data != null) {
-            if (reason > data.getReasons().size()) {
+            if (reason > data.getReasonCount()) {
                 ModerationPlugin.sendError(commandSender, new ComponentBuilder("Player does not have that many reasons."));
             } else {
-                if(data.getReasons().size()>1) {
+                if(data.getReasonCount()>1) {
                     ModerationPlugin.getWatchlistManager().removeWatchlistReason(player, reason - 1);
                     ModerationPlugin.sendInfo(commandSender, new ComponentBuilder("Watchlist reason removed from player '" + player + "'."));
                 } else {
@@ -41,10 +41,31 @@ public class ModerationConfig extends YamlBridge {
 
     public boolean isWatchlistPlayerJoinNotificationIngame() { return getBoolean("watchlist.playerJoinNotification.sendIngame", true); }
     public boolean isWatchlistPlayerJoinNotificationDiscord() { return getBoolean("watchlist.playerJoinNotification.sendDiscord", true); }
+    public int getWatchlistPlayerJoinNotificationInterval() { return getInt("watchlist.playerJoinNotification.interval", 5); }
+    public int getWatchlistPlayerJoinNotificationReconnectWindow() { return getInt("watchlist.playerJoinNotification.reconnectWindow", 60); }
     public boolean isWatchlistSendIngame() { return getBoolean("watchlist.sendIngame", true); }
     public boolean isWatchlistSendDiscord() { return getBoolean("watchlist.sendDiscord", true); }
     public String getWatchlistDiscordChannel() { return getString("watchlist.discordChannel", "reports"); }
     public boolean isWatchlistPingModerators() { return getBoolean("watchlist.pingModerators", false); }
     public String getWatchlistTablistPrefix() { return getString("watchlist.tabListPrefix", "#ff8866W"); }
+    public int getWatchlistFlushInterval() { return getInt("watchlist.storage.flushInterval", 2000); }
+    public int getWatchlistMaxFlushDelay() { return getInt("watchlist.storage.maxFlushDelay", 10000); }
+    public String getWatchlistStorageFormat() { return getString("watchlist.storage.format", "yaml"); }
+    public boolean isWatchlistJournal() { return getBoolean("watchlist.storage.journal", false); }
+    public int getWatchlistJournalCompactSize() { return getInt("watchlist.storage.journalCompactSize", 1048576); }
+    public int getKnownPlayersCacheSize() { return getInt("watchlist.knownPlayers.cacheSize", 10000); }
+    public int getJoinQueueCapacity() { return getInt("watchlist.joinQueue.capacity", 1000); }
+    public int getJoinQueueDeferredCapacity() { return getInt("watchlist.joinQueue.deferredCapacity", 10000); }
+    public int getJoinQueueThreads() { return getInt("watchlist.joinQueue.threads", 2); }
+    public int getJoinQueueReportInterval() { return getInt("watchlist.joinQueue.reportInterval", 60); }
+
+    public int getDiscordBatchWindow() { return getInt("discord.batchWindow", 2000); }
+    public int getDiscordMaxPostLength() { return getInt("discord.maxPostLength", 2000); }
+    public int getDiscordMaxQueued() { return getInt("discord.maxQueued", 200); }
+    public int getDiscordRateLimitBurst() { return getInt("discord.rateLimit.burst", 5); }
+    public int getDiscordRateLimitPerMinute() { return getInt("discord.rateLimit.perMinute", 20); }
+    public int getDiscordOutboxSize() { return getInt("discord.outboxSize", 1000); }
+
+    public int getTabCompleteInterval() { return getInt("command.tabCompleteInterval", 50); }
 
 }
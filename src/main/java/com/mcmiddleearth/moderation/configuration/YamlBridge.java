@@ -17,6 +17,7 @@
 package com.mcmiddleearth.moderation.configuration;
 
 import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.LoaderOptions;
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.File;
@@ -39,7 +40,14 @@ public class YamlBridge {
     private Map<String,Object> map = new HashMap<>();
     
     public void load(File file) {
-        Yaml yaml = new Yaml();
+        LoaderOptions options = new LoaderOptions();
+        try {
+            // SnakeYAML 1.32 and later refuse documents larger than 3 MB by default, a large watchlist.yml exceeds it
+            options.setCodePointLimit(Integer.MAX_VALUE);
+        } catch (NoSuchMethodError ex) {
+            // older SnakeYAML versions have no limit
+        }
+        Yaml yaml = new Yaml(options);
         try(FileInputStream in =  new FileInputStream(file)){
             map = yaml.load(in);
         } catch (IOException e) {
@@ -47,14 +55,16 @@ public class YamlBridge {
         }
     }
 
-    public void save(File file) {
+    public boolean save(File file) {
         DumperOptions options = new DumperOptions();
         options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
         Yaml yaml = new Yaml(options);
         try(FileWriter out = new FileWriter(file)) {
             yaml.dump(map, out);
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
     }
     
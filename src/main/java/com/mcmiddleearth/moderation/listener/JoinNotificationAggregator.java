@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.listener;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+import com.mcmiddleearth.moderation.Permission;
+import com.mcmiddleearth.moderation.Style;
+import com.mcmiddleearth.moderation.util.DiscordUtil;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects joins of watched players and players who were put on the watchlist as alts and notifies moderators once
+ * per interval about all of them with one message in game and one Discord post. A player who joins again within the
+ * reconnect window after being reported is not reported again.
+ */
+
+public class JoinNotificationAggregator {
+
+    private final long reconnectWindow;
+
+    private final Map<String, PendingJoin> pending = new LinkedHashMap<>();
+    private final Map<String, Long> notified = new HashMap<>();
+
+    private final ScheduledTask task;
+
+    /**
+     * @param interval seconds between notifications
+     * @param reconnectWindow seconds in which a reconnect of an already reported player is ignored
+     */
+    public JoinNotificationAggregator(int interval, int reconnectWindow) {
+        this.reconnectWindow = TimeUnit.SECONDS.toMillis(Math.max(0, reconnectWindow));
+        long period = Math.max(1, interval);
+        task = ProxyServer.getInstance().getScheduler().schedule(ModerationPlugin.getInstance(), this::notifyModerators,
+                                                                 period, period, TimeUnit.SECONDS);
+    }
+
+    public synchronized void watchedJoined(String name) {
+        add(name, null);
+    }
+
+    /**
+     * @param reason reason why the player was put on the watchlist
+     */
+    public synchronized void altJoined(String name, String reason) {
+        add(name, reason);
+    }
+
+    private void add(String name, String reason) {
+        String key = name.toLowerCase();
+        Long notifiedTime = notified.get(key);
+        if(notifiedTime != null && System.currentTimeMillis() - notifiedTime < reconnectWindow) {
+            return;
+        }
+        PendingJoin join = pending.get(key);
+        if(join == null || join.reason == null) {
+            pending.put(key, new PendingJoin(name, reason));
+        }
+    }
+
+    private void notifyModerators() {
+        List<PendingJoin> joins;
+        synchronized(this) {
+            long now = System.currentTimeMillis();
+            notified.values().removeIf(time -> now - time >= reconnectWindow);
+            if(pending.isEmpty()) {
+                return;
+            }
+            joins = new ArrayList<>(pending.values());
+            pending.keySet().forEach(key -> notified.put(key, now));
+            pending.clear();
+        }
+        List<String> watched = new ArrayList<>();
+        List<PendingJoin> alts = new ArrayList<>();
+        joins.forEach(join -> {
+            if(join.reason == null) {
+                watched.add(join.name);
+            } else {
+                alts.add(join);
+            }
+        });
+        if(ModerationPlugin.getConfig().isWatchlistPlayerJoinNotificationIngame()) {
+            ComponentBuilder message = new ComponentBuilder("");
+            if(watched.size() == 1) {
+                message.append(Style.INFO + "Watched player " + Style.INFO_STRESSED + watched.get(0) + Style.INFO + " joined.");
+            } else if(!watched.isEmpty()) {
+                message.append(Style.INFO + "Watched players joined: " + Style.INFO_STRESSED
+                        + String.join(Style.INFO + ", " + Style.INFO_STRESSED, watched) + Style.INFO + ".");
+            }
+            boolean first = watched.isEmpty();
+            for(PendingJoin alt: alts) {
+                message.append((first ? "" : "\n") + Style.INFO + "Player " + Style.INFO_STRESSED + alt.name
+                        + Style.INFO + " joined and was put on Watchlist because he's an " + alt.reason);
+                first = false;
+            }
+            ModerationPlugin.broadcastInfo(ModerationPlugin.getModerators().getRecipients(Permission.SEE_WATCHLIST), message);
+        }
+        if(ModerationPlugin.getConfig().isWatchlistPlayerJoinNotificationDiscord()) {
+            List<String> lines = new ArrayList<>();
+            if(watched.size() == 1) {
+                lines.add("Watched player **" + watched.get(0) + "** joined the server.");
+            } else if(!watched.isEmpty()) {
+                lines.add("Watched players joined the server: **" + String.join("**, **", watched) + "**");
+            }
+            alts.forEach(alt -> lines.add("Player **" + alt.name
+                    + "** joined the server and was put on Watchlist because he's an " + alt.reason));
+            DiscordUtil.sendDiscord(ModerationPlugin.getConfig().getWatchlistDiscordChannel(), String.join("\n", lines),
+                                    ModerationPlugin.getConfig().isWatchlistPingModerators());
+        }
+    }
+
+    /**
+     * Sends the pending notifications. Call when the plugin is disabled.
+     */
+    public void shutdown() {
+        task.cancel();
+        notifyModerators();
+    }
+
+    private static class PendingJoin {
+
+        private final String name;
+        private final String reason;
+
+        public PendingJoin(String name, String reason) {
+            this.name = name;
+            this.reason = reason;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.listener;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the moderation checks of joining players on a bounded queue with a pool of worker threads, so the connection
+ * of a player doesn't wait for them. If the queue is full during a join storm, the task is deferred instead: deferred
+ * tasks are kept by player in a second bounded queue, a newer join of the same player replaces the waiting task.
+ * Whenever a worker finished a task and the main queue is less than half full, deferred tasks are moved back to it.
+ * Queueing a deferred task takes constant time on the calling thread. If the deferred queue is full too, the oldest
+ * deferred task is dropped.
+ * <p>
+ * Queue depth and processing latency are logged with {@link #report()} while joins are waiting.
+ */
+
+public class JoinProcessor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final int capacity;
+
+    private final int deferredCapacity;
+
+    // guarded by deferred
+    private final Map<Object,Runnable> deferred = new LinkedHashMap<>();
+
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong intervalMaxLatency = new AtomicLong();
+
+    // counters at the last report, guarded by this
+    private long reportedProcessed;
+    private long reportedLatency;
+    private long reportedDeferred;
+    private long reportedDropped;
+    private boolean reportedBusy;
+
+    /**
+     * @param capacity maximum number of waiting joins
+     * @param deferredCapacity maximum number of joins waiting for space in the queue
+     * @param threads number of worker threads
+     */
+    public JoinProcessor(int capacity, int deferredCapacity, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        int poolSize = Math.max(1, threads);
+        this.capacity = Math.max(1, capacity);
+        this.deferredCapacity = Math.max(0, deferredCapacity);
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<>(this.capacity), runnable -> {
+            Thread thread = new Thread(runnable, "MCME-Moderation join processor " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @param key identifies the joining player, a deferred task with the same key is replaced
+     * @param task checks of a joining player
+     */
+    public void submit(Object key, Runnable task) {
+        long submitTime = System.nanoTime();
+        Runnable timedTask = () -> {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Processing player join failed!", ex);
+            }
+            recordLatency(System.nanoTime() - submitTime);
+            submitDeferred();
+        };
+        try {
+            executor.execute(timedTask);
+        } catch (RejectedExecutionException ex) {
+            if(executor.isShutdown()) {
+                return;
+            }
+            defer(key, timedTask);
+        }
+    }
+
+    private void defer(Object key, Runnable task) {
+        boolean dropped = false;
+        synchronized(deferred) {
+            if(deferred.put(key, task) == null && deferred.size() > deferredCapacity) {
+                Iterator<Runnable> oldest = deferred.values().iterator();
+                oldest.next();
+                oldest.remove();
+                dropped = true;
+            }
+        }
+        long count = deferredCount.incrementAndGet();
+        if(count == 1 || count % 100 == 0) {
+            Logger.getLogger(ModerationPlugin.class.getName()).warning("Join queue is full, deferred checks of "
+                    + count + " joins so far.");
+        }
+        if(dropped) {
+            long droppedJoins = droppedCount.incrementAndGet();
+            if(droppedJoins == 1 || droppedJoins % 100 == 0) {
+                Logger.getLogger(ModerationPlugin.class.getName()).warning("Deferred join queue is full, skipped checks of "
+                        + droppedJoins + " joins so far.");
+            }
+        }
+        // the workers may have emptied the queue in the meantime
+        submitDeferred();
+    }
+
+    /**
+     * Moves deferred tasks to the queue while it is less than half full.
+     */
+    private void submitDeferred() {
+        while(executor.getQueue().size() < (capacity + 1) / 2 && !executor.isShutdown()) {
+            Object key;
+            Runnable task;
+            synchronized(deferred) {
+                Iterator<Map.Entry<Object,Runnable>> iterator = deferred.entrySet().iterator();
+                if(!iterator.hasNext()) {
+                    return;
+                }
+                Map.Entry<Object,Runnable> next = iterator.next();
+                key = next.getKey();
+                task = next.getValue();
+                iterator.remove();
+            }
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                synchronized(deferred) {
+                    deferred.putIfAbsent(key, task);
+                }
+                return;
+            }
+        }
+    }
+
+    private void recordLatency(long latency) {
+        processedCount.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+        intervalMaxLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * Logs queue depth, deferred joins and the processing latency since the last report if joins are waiting or were
+     * deferred since then, and once more after the queue emptied. Call periodically.
+     */
+    public synchronized void report() {
+        int depth = getQueueDepth();
+        int deferredDepth = getDeferredDepth();
+        long processed = processedCount.get();
+        long latency = totalLatency.get();
+        long deferredJoins = deferredCount.get();
+        long droppedJoins = droppedCount.get();
+        long intervalMax = intervalMaxLatency.getAndSet(0);
+        boolean busy = (depth > 0 || deferredDepth > 0 || deferredJoins > reportedDeferred);
+        if(busy || reportedBusy) {
+            long intervalProcessed = processed - reportedProcessed;
+            double average = (intervalProcessed > 0 ? (latency - reportedLatency) / 1e6 / intervalProcessed : 0);
+            Logger.getLogger(ModerationPlugin.class.getName()).info("Join queue: " + depth + "/" + capacity
+                    + " waiting, " + deferredDepth + " deferred, " + intervalProcessed + " processed since last report,"
+                    + " average " + String.format("%.1f", average) + " ms, max " + String.format("%.1f", intervalMax / 1e6)
+                    + " ms, " + (deferredJoins - reportedDeferred) + " joins deferred, " + (droppedJoins - reportedDropped)
+                    + " joins skipped.");
+        }
+        reportedProcessed = processed;
+        reportedLatency = latency;
+        reportedDeferred = deferredJoins;
+        reportedDropped = droppedJoins;
+        reportedBusy = busy;
+    }
+
+    /**
+     * @return number of joins waiting for processing
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of joins waiting for space in the queue
+     */
+    public int getDeferredDepth() {
+        synchronized(deferred) {
+            return deferred.size();
+        }
+    }
+
+    /**
+     * @return number of joins whose checks were processed by the queue
+     */
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * @return number of joins whose checks were deferred because the queue was full
+     */
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * @return number of joins whose checks were skipped because the deferred queue was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return average time in milliseconds from the join until its checks were done
+     */
+    public double getAverageLatency() {
+        long count = processedCount.get();
+        return (count > 0 ? totalLatency.get() / 1e6 / count : 0);
+    }
+
+    /**
+     * @return maximum time in milliseconds from a join until its checks were done
+     */
+    public double getMaxLatency() {
+        return maxLatency.get() / 1e6;
+    }
+
+    /**
+     * Finishes waiting joins and stops the worker threads. Deferred joins which were not moved to the queue yet are
+     * skipped.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                Logger.getLogger(ModerationPlugin.class.getName()).warning("Processing player joins did not finish in time!");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Logger.getLogger(ModerationPlugin.class.getName()).info("Processed " + getProcessedCount() + " joins, average "
+                + String.format("%.1f", getAverageLatency()) + " ms, max " + String.format("%.1f", getMaxLatency())
+                + " ms, " + getDeferredCount() + " joins deferred because the queue was full, "
+                + getDroppedCount() + " joins skipped, " + getQueueDepth() + " queued and " + getDeferredDepth()
+                + " deferred joins not processed.");
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.listener;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+import com.mcmiddleearth.moderation.ModeratorRegistry;
+import net.luckperms.api.LuckPermsProvider;
+import net.luckperms.api.event.EventSubscription;
+import net.luckperms.api.event.user.UserDataRecalculateEvent;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+
+/**
+ * Updates the moderator registry when LuckPerms recalculates the permissions of an online player. Must only be
+ * created if LuckPerms is installed.
+ */
+
+public class LuckPermsListener {
+
+    private final EventSubscription<UserDataRecalculateEvent> subscription;
+
+    public LuckPermsListener(ModeratorRegistry moderators) {
+        subscription = LuckPermsProvider.get().getEventBus().subscribe(ModerationPlugin.getInstance(),
+                UserDataRecalculateEvent.class, event -> {
+            ProxiedPlayer player = ProxyServer.getInstance().getPlayer(event.getUser().getUniqueId());
+            if(player != null) {
+                moderators.update(player);
+            }
+        });
+    }
+
+    public void close() {
+        subscription.close();
+    }
+}
@@ -18,14 +18,14 @@ package com.mcmiddleearth.moderation.listener;
 
 import com.google.common.base.Joiner;
 import com.mcmiddleearth.moderation.ModerationPlugin;
-import com.mcmiddleearth.moderation.Permission;
-import com.mcmiddleearth.moderation.Style;
-import com.mcmiddleearth.moderation.util.DiscordUtil;
 import com.mcmiddleearth.moderation.watchlist.WatchlistPlayerData;
 import net.md_5.bungee.api.ProxyServer;
-import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.PostLoginEvent;
 import net.md_5.bungee.api.event.ServerConnectEvent;
 import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
 import net.md_5.bungee.event.EventHandler;
 import net.md_5.bungee.event.EventPriority;
 
@@ -39,60 +39,79 @@ import java.util.logging.Logger;
 
 public class WatchlistListener implements Listener {
 
+    private final JoinProcessor joinProcessor = new JoinProcessor(ModerationPlugin.getConfig().getJoinQueueCapacity(),
+                                                                  ModerationPlugin.getConfig().getJoinQueueDeferredCapacity(),
+                                                                  ModerationPlugin.getConfig().getJoinQueueThreads());
+
+    private final JoinNotificationAggregator joinNotifications
+            = new JoinNotificationAggregator(ModerationPlugin.getConfig().getWatchlistPlayerJoinNotificationInterval(),
+                                             ModerationPlugin.getConfig().getWatchlistPlayerJoinNotificationReconnectWindow());
+
+    private final ScheduledTask joinQueueReport;
+
+    public WatchlistListener() {
+        int reportInterval = ModerationPlugin.getConfig().getJoinQueueReportInterval();
+        joinQueueReport = (reportInterval > 0 ? ProxyServer.getInstance().getScheduler()
+                .schedule(ModerationPlugin.getInstance(), joinProcessor::report, reportInterval, reportInterval,
+                          TimeUnit.SECONDS) : null);
+    }
+
+    /**
+     * Only the check if the player is watched is done on the connect path, all other checks are queued.
+     */
     @EventHandler(priority = EventPriority.HIGHEST)
     public void playerJoin(ServerConnectEvent event) {
         if(event.getReason().equals(ServerConnectEvent.Reason.JOIN_PROXY)) {
+            ProxiedPlayer player = event.getPlayer();
+            boolean watched = ModerationPlugin.getWatchlistManager().isWatched(player);
+            if(watched) {
+                joinNotifications.watchedJoined(player.getName());
+            }
+            joinProcessor.submit(player.getUniqueId(), () -> processJoin(player, watched));
+        }
+    }
 
-            ModerationPlugin.getWatchlistManager().addKnownPlayer(event.getPlayer());
+    private void processJoin(ProxiedPlayer player, boolean watched) {
+        ModerationPlugin.getWatchlistManager().addKnownPlayer(player);
 
-            //handle name changes of players
-            ModerationPlugin.getWatchlistManager().updateWatchlist(event.getPlayer());
+        //handle name changes of players
+        ModerationPlugin.getWatchlistManager().updateWatchlist(player);
 
-            if(ModerationPlugin.getWatchlistManager().isOnWatchlist(event.getPlayer().getName())) {
-                ProxyServer.getInstance().getScheduler().schedule(ModerationPlugin.getInstance(), () -> {
-                    ComponentBuilder message = new ComponentBuilder(Style.INFO + "Watched player " + Style.INFO_STRESSED + event.getPlayer().getName()
-                            + Style.INFO + " joined.");
+        if(!watched && ModerationPlugin.getWatchlistManager().hasWatchedIp(player)) {
+            Collection<WatchlistPlayerData> aliases
+                    = ModerationPlugin.getWatchlistManager().getWatchedAliases(player.getName());
+            String reason = "Alt of "+ Joiner.on(", ").join(aliases.stream().map(alias -> {
+                        if(alias.isNameUnknown()) {
+                            return alias.getUuid().toString();
+                        } else {
+                            return ModerationPlugin.getWatchlistManager().getName(alias)+" ("+alias.getUuid().toString()+")";
+                        }
+                    }).toArray());
+            ModerationPlugin.getWatchlistManager().addWatchlist(player.getName(),
+                    null,
+                    reason);
+            joinNotifications.altJoined(player.getName(), reason);
+        }
+    }
 
-                    if (ModerationPlugin.getConfig().isWatchlistPlayerJoinNotificationIngame()) {
-                        ProxyServer.getInstance().getPlayers().stream()
-                                .filter(moderator -> moderator.hasPermission(Permission.SEE_WATCHLIST))
-                                .forEach(moderator -> ModerationPlugin.sendInfo(moderator, message));
-                    }
-                    if (ModerationPlugin.getConfig().isWatchlistPlayerJoinNotificationDiscord()) {
-                        String discordChannel = ModerationPlugin.getConfig().getWatchlistDiscordChannel();
-                        DiscordUtil.sendDiscord(discordChannel, "Watched player **" + event.getPlayer().getName() + "** joined the server.",
-                                ModerationPlugin.getConfig().isWatchlistPingModerators());
-                    }
-                }, 5, TimeUnit.SECONDS);
-            }  else if(ModerationPlugin.getWatchlistManager().hasWatchedIp(event.getPlayer())) {
-                Collection<WatchlistPlayerData> aliases
-                        = ModerationPlugin.getWatchlistManager().getWatchedAliases(event.getPlayer().getName());
-                String reason = "Alt of "+ Joiner.on(", ").join(aliases.stream().map(alias -> {
-                            if(alias.isNameUnknown()) {
-                                return alias.getUuid().toString();
-                            } else {
-                                return ModerationPlugin.getWatchlistManager().getName(alias)+" ("+alias.getUuid().toString()+")";
-                            }
-                        }).toArray());
-                ModerationPlugin.getWatchlistManager().addWatchlist(event.getPlayer().getName(),
-                        null,
-                        reason);
-                ProxyServer.getInstance().getScheduler().schedule(ModerationPlugin.getInstance(), () -> {
-                    if (ModerationPlugin.getConfig().isWatchlistPlayerJoinNotificationIngame()) {
-                        ComponentBuilder message = new ComponentBuilder(Style.INFO + "Player " + Style.INFO_STRESSED + event.getPlayer().getName()
-                                + Style.INFO + " joined and was put on Watchlist because he's an "+reason);
-                        ProxyServer.getInstance().getPlayers().stream()
-                                .filter(moderator -> moderator.hasPermission(Permission.SEE_WATCHLIST))
-                                .forEach(moderator -> ModerationPlugin.sendInfo(moderator, message));
-                    }
-                    if (ModerationPlugin.getConfig().isWatchlistPlayerJoinNotificationDiscord()) {
-                        String discordChannel = ModerationPlugin.getConfig().getWatchlistDiscordChannel();
-                        DiscordUtil.sendDiscord(discordChannel, "Player **" + event.getPlayer().getName()
-                                                + "** joined the server and was put on Watchlist because he's an "+reason,
-                                ModerationPlugin.getConfig().isWatchlistPingModerators());
-                    }
-                }, 5, TimeUnit.SECONDS);
-            }
+    /**
+     * Finishes queued join checks and sends pending notifications. Call when the plugin is disabled.
+     */
+    public void shutdown() {
+        if(joinQueueReport != null) {
+            joinQueueReport.cancel();
         }
+        joinProcessor.shutdown();
+        joinNotifications.shutdown();
+    }
+
+    @EventHandler
+    public void playerLogin(PostLoginEvent event) {
+        ModerationPlugin.getWatchlistManager().addOnlinePlayer(event.getPlayer());
+    }
+
+    @EventHandler
+    public void playerLeave(PlayerDisconnectEvent event) {
+        ModerationPlugin.getWatchlistManager().removeOnlinePlayer(event.getPlayer());
     }
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.util;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Collects Discord notifications per channel and merges the messages of a short time window into one post. Posts
+ * are limited by a token bucket. Posts are split between messages only, messages which don't fit into a post wait for
+ * the next one. A single message which is too long for a post by itself is truncated with a marker when it's queued.
+ * If too many messages are waiting for a channel further messages are dropped.
+ */
+
+public class DiscordDispatcher {
+
+    private static final long TICK_MILLIS = 250;
+
+    static final String TRUNCATED_MARKER = " \u2026 (truncated)";
+
+    private final long batchWindow;
+    private final int maxPostLength;
+    private final int maxQueued;
+
+    private final double bucketSize;
+    private final double refillPerMilli;
+    private double tokens;
+    private long lastRefill;
+
+    private final Map<String, ChannelQueue> channels = new LinkedHashMap<>();
+
+    private long sentCount;
+    private long mergedCount;
+    private long droppedCount;
+    private long truncatedCount;
+
+    private final DiscordOutbox outbox;
+
+    private final ScheduledTask task;
+
+    /**
+     * @param outbox persistent queue that delivers the posts
+     */
+    public DiscordDispatcher(DiscordOutbox outbox) {
+        this.outbox = outbox;
+        batchWindow = Math.max(0, ModerationPlugin.getConfig().getDiscordBatchWindow());
+        maxPostLength = Math.max(100, ModerationPlugin.getConfig().getDiscordMaxPostLength());
+        maxQueued = Math.max(1, ModerationPlugin.getConfig().getDiscordMaxQueued());
+        bucketSize = Math.max(1, ModerationPlugin.getConfig().getDiscordRateLimitBurst());
+        refillPerMilli = Math.max(1, ModerationPlugin.getConfig().getDiscordRateLimitPerMinute()) / 60000.0;
+        tokens = bucketSize;
+        lastRefill = System.currentTimeMillis();
+        task = ProxyServer.getInstance().getScheduler().schedule(ModerationPlugin.getInstance(), () -> flush(false),
+                                                                 TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a message for the next post to a channel.
+     * @param discordChannel channel to post to
+     * @param message message text
+     * @param ping true if the moderator role shall be tagged in the post
+     */
+    public synchronized void send(String discordChannel, String message, boolean ping) {
+        ChannelQueue queue = channels.computeIfAbsent(discordChannel, channel -> new ChannelQueue());
+        if(queue.messages.size() >= maxQueued) {
+            if(droppedCount++ % 100 == 0) {
+                Logger.getLogger(ModerationPlugin.class.getName()).warning("Too many Discord messages for channel "
+                        + discordChannel + ", dropped " + droppedCount + " messages so far.");
+            }
+            return;
+        }
+        if(queue.messages.isEmpty()) {
+            queue.firstQueued = System.currentTimeMillis();
+        }
+        String text = truncate(message, maxPostLength - (ping ? getTag().length() : 0));
+        if(text.length() < message.length() && truncatedCount++ % 100 == 0) {
+            Logger.getLogger(ModerationPlugin.class.getName()).warning("Discord message for channel " + discordChannel
+                    + " too long, truncated " + truncatedCount + " messages so far.");
+        }
+        queue.messages.add(new QueuedMessage(text, ping));
+    }
+
+    /**
+     * Shortens a message to the maximum length. The message is cut at a line break or space near the end if possible,
+     * never inside of a surrogate pair. Open code blocks and inline code are closed.
+     * @return the message itself if it isn't too long, otherwise the shortened message ending with the marker
+     */
+    static String truncate(String message, int maxLength) {
+        if(message.length() <= maxLength) {
+            return message;
+        }
+        // space for the marker and a closing code block
+        int end = Math.max(0, maxLength - TRUNCATED_MARKER.length() - 4);
+        if(end > 0 && Character.isHighSurrogate(message.charAt(end - 1))) {
+            end--;
+        }
+        int lineBreak = message.lastIndexOf('\n', end);
+        int space = message.lastIndexOf(' ', end);
+        if(lineBreak > end * 3 / 4) {
+            end = lineBreak;
+        } else if(space > end * 3 / 4) {
+            end = space;
+        }
+        StringBuilder result = new StringBuilder(message.substring(0, end));
+        int fences = count(result, "```");
+        if(fences % 2 == 1) {
+            result.append("\n```");
+        } else if((count(result, "`") - fences * 3) % 2 == 1) {
+            result.append('`');
+        }
+        return result.append(TRUNCATED_MARKER).toString();
+    }
+
+    private static int count(StringBuilder text, String token) {
+        int count = 0;
+        for(int index = text.indexOf(token); index >= 0; index = text.indexOf(token, index + token.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String getTag() {
+        return "@" + ModerationPlugin.getConfig().getReportDiscordRole() + " ";
+    }
+
+    private synchronized void flush(boolean force) {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(bucketSize, tokens + (now - lastRefill) * refillPerMilli);
+        lastRefill = now;
+        Iterator<Map.Entry<String, ChannelQueue>> iterator = channels.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, ChannelQueue> entry = iterator.next();
+            ChannelQueue queue = entry.getValue();
+            while(!queue.messages.isEmpty() && (force || (now - queue.firstQueued >= batchWindow && tokens >= 1))) {
+                outbox.add(entry.getKey(), nextPost(queue));
+                tokens = Math.max(0, tokens - 1);
+                sentCount++;
+            }
+            if(queue.messages.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private String nextPost(ChannelQueue queue) {
+        String tag = getTag();
+        StringBuilder post = new StringBuilder();
+        boolean ping = false;
+        int merged = 0;
+        while(!queue.messages.isEmpty()) {
+            QueuedMessage next = queue.messages.peek();
+            int length = post.length() + (post.length() > 0 ? 1 : 0) + next.text.length()
+                         + (next.ping && !ping ? tag.length() : 0);
+            if(merged > 0 && length > maxPostLength) {
+                break;
+            }
+            queue.messages.poll();
+            if(merged > 0) {
+                post.append('\n');
+            }
+            post.append(next.text);
+            ping |= next.ping;
+            merged++;
+        }
+        mergedCount += merged - 1;
+        // messages were truncated to fit into a post with tag when they were queued
+        return (ping ? tag + post : post.toString());
+    }
+
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return number of messages which were sent as part of another post
+     */
+    public synchronized long getMergedCount() {
+        return mergedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return number of messages which were too long for a post
+     */
+    public synchronized long getTruncatedCount() {
+        return truncatedCount;
+    }
+
+    /**
+     * Moves all waiting messages to the outbox without rate limit. Call when the plugin is disabled.
+     */
+    public void shutdown() {
+        task.cancel();
+        flush(true);
+        Logger.getLogger(ModerationPlugin.class.getName()).info("Sent " + getSentCount() + " Discord posts, "
+                + getMergedCount() + " messages merged into other posts, " + getDroppedCount() + " messages dropped, "
+                + getTruncatedCount() + " messages truncated.");
+    }
+
+    private static class ChannelQueue {
+
+        private final Deque<QueuedMessage> messages = new ArrayDeque<>();
+        private long firstQueued;
+    }
+
+    private static class QueuedMessage {
+
+        private final String text;
+        private final boolean ping;
+
+        public QueuedMessage(String text, boolean ping) {
+            this.text = text;
+            this.ping = ping;
+        }
+    }
+}
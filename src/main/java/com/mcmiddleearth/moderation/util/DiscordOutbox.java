@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.util;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.event.ServerConnectedEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+import net.md_5.bungee.event.EventHandler;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent queue of Discord posts. Plugin messages to the Discord bridge need a backend server with a connected
+ * player, so posts are written to an append-only file first and removed by an acknowledge record once they were
+ * handed to a server. Posts are sent in order of their sequence numbers, spread round-robin over all servers with
+ * players. If no server is available, sending is retried with increasing delay and as soon as a player connects to
+ * a server. Posts not sent before a restart are loaded again at startup.
+ */
+
+public class DiscordOutbox implements Listener {
+
+    private static final byte POST = 1;
+    private static final byte ACK = 2;
+
+    private static final long MIN_RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 60000;
+    private static final int POSTS_PER_DRAIN = 10;
+    private static final int COMPACT_ACK_COUNT = 1000;
+
+    private final File file;
+    private final int maxSize;
+
+    private final Deque<Post> pending = new ArrayDeque<>();
+    private long nextSequence = 1;
+    private int ackCount;
+
+    private DataOutputStream out;
+
+    private long retryDelay = MIN_RETRY_DELAY;
+    private ScheduledTask drainTask;
+    private int serverIndex;
+
+    private long droppedCount;
+
+    private boolean closed;
+
+    /**
+     * @param file file to store waiting posts
+     * @param maxSize maximum number of waiting posts, the oldest post is dropped if another one is added
+     */
+    public DiscordOutbox(File file, int maxSize) {
+        this.file = file;
+        this.maxSize = Math.max(1, maxSize);
+        load();
+        // rewrite to remove acknowledged and incomplete records
+        compact();
+        if(!pending.isEmpty()) {
+            Logger.getLogger(ModerationPlugin.class.getName()).info("Loaded " + pending.size()
+                    + " unsent Discord posts.");
+            scheduleDrain(MIN_RETRY_DELAY);
+        }
+    }
+
+    private void load() {
+        if(!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while(true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    record = new byte[length];
+                    in.readFully(record);
+                } catch (EOFException ex) {
+                    // end of file or incomplete last record
+                    break;
+                }
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                long sequence = recordIn.readLong();
+                byte type = recordIn.readByte();
+                switch(type) {
+                    case POST:
+                        pending.add(new Post(sequence, recordIn.readUTF(), recordIn.readUTF()));
+                        break;
+                    case ACK:
+                        pending.removeIf(post -> post.sequence <= sequence);
+                        break;
+                    default:
+                        throw new IOException("Unknown Discord outbox record type: " + type);
+                }
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Reading Discord outbox failed!", ex);
+        }
+        while(pending.size() > maxSize) {
+            pending.poll();
+            droppedCount++;
+        }
+    }
+
+    /**
+     * Stores a post and tries to send it.
+     */
+    public synchronized void add(String discordChannel, String message) {
+        if(pending.size() >= maxSize) {
+            acknowledge(pending.poll());
+            if(droppedCount++ % 100 == 0) {
+                Logger.getLogger(ModerationPlugin.class.getName()).warning("Discord outbox is full, dropped "
+                        + droppedCount + " posts so far.");
+            }
+        }
+        Post post = new Post(nextSequence++, discordChannel, message);
+        pending.add(post);
+        write(post.sequence, POST, post);
+        if(drainTask == null) {
+            drain();
+        }
+    }
+
+    /**
+     * Sends waiting posts in order as long as servers accept them.
+     */
+    public synchronized void drain() {
+        if(drainTask != null) {
+            drainTask.cancel();
+            drainTask = null;
+        }
+        int sent = 0;
+        boolean failed = false;
+        while(!pending.isEmpty() && sent < POSTS_PER_DRAIN) {
+            Post post = pending.peek();
+            if(sendToNextServer(DiscordUtil.encode(post.channel, post.message))) {
+                pending.poll();
+                acknowledge(post);
+                sent++;
+            } else {
+                failed = true;
+                break;
+            }
+        }
+        if(ackCount >= COMPACT_ACK_COUNT || (pending.isEmpty() && ackCount > 0)) {
+            compact();
+        }
+        if(pending.isEmpty()) {
+            retryDelay = MIN_RETRY_DELAY;
+        } else if(failed) {
+            scheduleDrain(retryDelay);
+            retryDelay = Math.min(MAX_RETRY_DELAY, retryDelay * 2);
+        } else {
+            retryDelay = MIN_RETRY_DELAY;
+            scheduleDrain(MIN_RETRY_DELAY);
+        }
+    }
+
+    private boolean sendToNextServer(byte[] data) {
+        List<ServerInfo> servers = new ArrayList<>();
+        for(ServerInfo server: ProxyServer.getInstance().getServers().values()) {
+            if(!server.getPlayers().isEmpty()) {
+                servers.add(server);
+            }
+        }
+        for(int i = 0; i < servers.size(); i++) {
+            serverIndex = (serverIndex + 1) % servers.size();
+            // without queueing sendData fails if the last player left the server meanwhile
+            if(servers.get(serverIndex).sendData("mcme:connect", data, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleDrain(long delay) {
+        if(closed) {
+            return;
+        }
+        if(drainTask != null) {
+            drainTask.cancel();
+        }
+        drainTask = ProxyServer.getInstance().getScheduler().schedule(ModerationPlugin.getInstance(), () -> {
+            synchronized(this) {
+                drainTask = null;
+            }
+            drain();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @EventHandler
+    public synchronized void serverConnected(ServerConnectedEvent event) {
+        if(!pending.isEmpty()) {
+            // the player is added to the server after this event
+            retryDelay = MIN_RETRY_DELAY;
+            scheduleDrain(MIN_RETRY_DELAY);
+        }
+    }
+
+    private void acknowledge(Post post) {
+        write(post.sequence, ACK, null);
+        ackCount++;
+    }
+
+    private void write(long sequence, byte type, Post post) {
+        try {
+            if(out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream recordOut = new DataOutputStream(record);
+            recordOut.writeLong(sequence);
+            recordOut.writeByte(type);
+            if(post != null) {
+                recordOut.writeUTF(post.channel);
+                recordOut.writeUTF(post.message);
+            }
+            out.writeInt(record.size());
+            record.writeTo(out);
+            out.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Writing Discord outbox failed!", ex);
+        }
+    }
+
+    /**
+     * Rewrites the file with the waiting posts only.
+     */
+    private void compact() {
+        closeFile();
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out = tempOut;
+            for(Post post: pending) {
+                write(post.sequence, POST, post);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Writing Discord outbox failed!", ex);
+            out = null;
+            return;
+        }
+        out = null;
+        try {
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            ackCount = 0;
+        } catch (IOException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Replacing Discord outbox failed!", ex);
+        }
+    }
+
+    private void closeFile() {
+        if(out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Closing Discord outbox failed!", ex);
+            }
+            out = null;
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Sends what is possible and keeps the remaining posts for the next start. Call when the plugin is disabled.
+     */
+    public synchronized void close() {
+        drain();
+        closed = true;
+        if(drainTask != null) {
+            drainTask.cancel();
+            drainTask = null;
+        }
+        closeFile();
+        if(!pending.isEmpty()) {
+            Logger.getLogger(ModerationPlugin.class.getName()).info("Kept " + pending.size()
+                    + " unsent Discord posts for next start.");
+        }
+    }
+
+    private static class Post {
+
+        private final long sequence;
+        private final String channel;
+        private final String message;
+
+        public Post(long sequence, String channel, String message) {
+            this.sequence = sequence;
+            this.channel = channel;
+            this.message = message;
+        }
+    }
+}
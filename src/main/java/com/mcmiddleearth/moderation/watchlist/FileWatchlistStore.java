@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+import com.mcmiddleearth.moderation.configuration.YamlBridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores the watchlist as snapshot file watchlist.yml or watchlist.dat, optionally with a journal of the modifications
+ * since the last snapshot. The latest published watchlist snapshot is written by a background writer.
+ */
+
+public class FileWatchlistStore implements WatchlistStore {
+
+    private final File dataFile = new File(ModerationPlugin.getInstance().getDataFolder(),"watchlist.yml");
+    private final File binaryFile = new File(ModerationPlugin.getInstance().getDataFolder(),"watchlist.dat");
+
+    /**
+     * watchlist.dat from which the reasons of entries are loaded on first access.
+     */
+    private final WatchlistBinaryFormat.SnapshotFile binarySnapshot = new WatchlistBinaryFormat.SnapshotFile(binaryFile);
+
+    /**
+     * Save snapshots to watchlist.dat instead of watchlist.yml
+     */
+    private final boolean binaryFormat;
+
+    /**
+     * Key in watchlist.yml for the sequence number of the last journal record included in the file.
+     * Can't collide with player names as those don't contain '#'.
+     */
+    private static final String JOURNAL_SEQUENCE_KEY = "#journalSequence";
+
+    private final WatchlistJournal journal = new WatchlistJournal(new File(ModerationPlugin.getInstance().getDataFolder(),
+                                                                           "watchlist.journal"));
+    private final boolean journalEnabled;
+    private final long journalCompactSize;
+
+    private final WatchlistPersister persister;
+
+    /**
+     * Latest published snapshot of the watchlist with the sequence number of the last journal record it contains.
+     */
+    private volatile PublishedSnapshot latest;
+
+    /**
+     * Snapshot version that was last saved to file or handed to the persister.
+     */
+    private long savedVersion;
+    private long requestedVersion;
+
+    /**
+     * Set at loading if the loaded data needs to be saved with the first commit.
+     */
+    private boolean pendingSave = false;
+    private boolean deleteJournal = false;
+
+    /**
+     * Serialized form of the entries of the last written snapshot. Entries are immutable and shared between
+     * snapshots, so unchanged entries don't need to be serialized again. Only accessed by the writer.
+     */
+    private Map<WatchlistEntry,Object> serializedEntries = new IdentityHashMap<>();
+
+    private final AtomicLong skippedSaves = new AtomicLong();
+
+    public FileWatchlistStore() {
+        binaryFormat = ModerationPlugin.getConfig().getWatchlistStorageFormat().equalsIgnoreCase("binary");
+        journalEnabled = ModerationPlugin.getConfig().isWatchlistJournal();
+        journalCompactSize = ModerationPlugin.getConfig().getWatchlistJournalCompactSize();
+        persister = new WatchlistPersister(this::saveToFile,
+                                           ModerationPlugin.getConfig().getWatchlistFlushInterval(),
+                                           ModerationPlugin.getConfig().getWatchlistMaxFlushDelay());
+    }
+
+    /**
+     * Loads data from watchlist.yml or watchlist.dat, whichever is newer. So after editing watchlist.yml by hand the
+     * changes are imported into the binary format.
+     */
+    @Override
+    public void load(EntryConsumer consumer, WatchlistChanges changes) {
+        long start = System.nanoTime();
+        long snapshotSequence = 0;
+        File loadedFile = null;
+        int[] count = new int[1];
+        EntryConsumer counter = (name, data) -> {
+            count[0]++;
+            consumer.accept(name, data);
+        };
+        if(binaryFile.exists() && (!dataFile.exists() || binaryFile.lastModified() >= dataFile.lastModified())) {
+            Map<String,WatchlistPlayerData> entries = new LinkedHashMap<>();
+            try {
+                snapshotSequence = WatchlistBinaryFormat.read(binarySnapshot, entries::put);
+                entries.forEach(counter::accept);
+                loadedFile = binaryFile;
+            } catch (IOException ex) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.SEVERE, "Reading watchlist.dat failed!", ex);
+                if(!binaryFile.renameTo(new File(binaryFile.getPath() + ".corrupt"))) {
+                    Logger.getLogger(ModerationPlugin.class.getName()).warning("Renaming corrupt watchlist.dat failed!");
+                }
+            }
+        }
+        if(loadedFile == null && dataFile.exists()) {
+            snapshotSequence = loadYaml(counter);
+            loadedFile = dataFile;
+        }
+        if(loadedFile != null) {
+            Logger.getLogger(ModerationPlugin.class.getName()).info("Loaded " + count[0] + " watchlist entries from "
+                    + loadedFile.getName() + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+        }
+        // snapshot needs to be written in the configured format
+        boolean converted = (loadedFile != null && !loadedFile.equals(getSnapshotFile()));
+        int replayed = journal.replay(snapshotSequence, changes);
+        // the first snapshot published after loading has version 0
+        savedVersion = (converted || replayed > 0 ? -1 : 0);
+        requestedVersion = savedVersion;
+        pendingSave = (converted || replayed > 0);
+        if(journalEnabled) {
+            journal.open();
+        } else if(replayed > 0) {
+            // journal mode was switched off, include journal in watchlist.yml
+            deleteJournal = true;
+        }
+    }
+
+    private long loadYaml(EntryConsumer consumer) {
+        long snapshotSequence = 0;
+        YamlBridge yaml = new YamlBridge();
+        yaml.load(dataFile);
+        for(Map.Entry<String,Object> entry: yaml.getMap().entrySet()) {
+            if(entry.getKey().equals(JOURNAL_SEQUENCE_KEY)) {
+                snapshotSequence = ((Number) entry.getValue()).longValue();
+            } else {
+                consumer.accept(entry.getKey(), new WatchlistPlayerData((Map<String, Object>) entry.getValue()));
+            }
+        }
+        return snapshotSequence;
+    }
+
+    private File getSnapshotFile() {
+        return (binaryFormat ? binaryFile : dataFile);
+    }
+
+    /**
+     * Saves the watchlist to watchlist.yml (or watchlist.dat) immediately. Nothing is written if the watchlist wasn't
+     * modified since last save.
+     */
+    private void saveToFile() {
+        if(!writeSnapshot()) {
+            // try again later
+            persister.markDirty();
+        }
+    }
+
+    /**
+     * Writes the latest published snapshot to a temporary file and renames it to watchlist.yml or watchlist.dat.
+     * Snapshots are immutable, so modifications don't wait for the writer. In journal mode the journal is rotated
+     * before, the rotated journal is deleted if the written snapshot contains all of its records.
+     * @return false if writing failed
+     */
+    private boolean writeSnapshot() {
+        PublishedSnapshot published = latest;
+        if(published == null) {
+            return true;
+        }
+        synchronized(this) {
+            if(published.snapshot.getVersion() == savedVersion) {
+                skippedSaves.incrementAndGet();
+                return true;
+            }
+        }
+        long rotatedSequence = -1;
+        if(journalEnabled) {
+            rotatedSequence = journal.rotate();
+            published = latest;
+        }
+        YamlBridge yaml = new YamlBridge();
+        Map<String,WatchlistBinaryFormat.EntryBytes> binaryEntries = new LinkedHashMap<>();
+        Map<WatchlistEntry,Object> serialized = new IdentityHashMap<>();
+        for(WatchlistEntry entry: published.snapshot.getEntries()) {
+            Object data = serializedEntries.get(entry);
+            if(data == null) {
+                data = (binaryFormat ? WatchlistBinaryFormat.serialize(entry) : entry.serialize());
+            }
+            serialized.put(entry, data);
+            if(binaryFormat) {
+                binaryEntries.put(entry.getName(), (WatchlistBinaryFormat.EntryBytes) data);
+            } else {
+                yaml.set(entry.getName(), data);
+            }
+        }
+        serializedEntries = serialized;
+        long sequence = published.journalSequence;
+        File snapshotFile = getSnapshotFile();
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        Map<WatchlistBinaryFormat.ReasonBlock,Long> copiedBlocks = null;
+        if(binaryFormat) {
+            try {
+                copiedBlocks = WatchlistBinaryFormat.write(tempFile, sequence, binaryEntries);
+            } catch (IOException ex) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Writing watchlist.dat failed!", ex);
+                return false;
+            }
+        } else {
+            if(sequence > 0) {
+                yaml.set(JOURNAL_SEQUENCE_KEY, sequence);
+            }
+            if(!yaml.save(tempFile)) {
+                return false;
+            }
+        }
+        try {
+            if(binaryFormat) {
+                // reasons which are not loaded yet need to be read from the new file afterwards
+                binarySnapshot.replace(() -> moveFile(tempFile, snapshotFile), copiedBlocks);
+            } else {
+                moveFile(tempFile, snapshotFile);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Replacing " + snapshotFile.getName()
+                                                                                 + " failed!", ex);
+            return false;
+        }
+        if(journalEnabled && sequence >= rotatedSequence) {
+            // otherwise records committed after the snapshot was published are kept for the next snapshot
+            journal.deleteRotated();
+        }
+        synchronized(this) {
+            savedVersion = Math.max(savedVersion, published.snapshot.getVersion());
+        }
+        return true;
+    }
+
+    private static void moveFile(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Without journal the whole watchlist is saved by the background writer, in journal mode only when the journal got
+     * too large. Called after the modifications of the snapshot were reported, so the journal contains them.
+     */
+    @Override
+    public void commit(WatchlistSnapshot snapshot) {
+        latest = new PublishedSnapshot(snapshot, journal.getSequence());
+        if(deleteJournal) {
+            deleteJournal = false;
+            pendingSave = false;
+            if(writeSnapshot()) {
+                journal.delete();
+            } else {
+                requestSave();
+            }
+        } else if(pendingSave || !journalEnabled || journal.isBroken() || journal.getSize() >= journalCompactSize) {
+            pendingSave = false;
+            requestSave();
+        }
+    }
+
+    @Override
+    public void saveAll(WatchlistSnapshot snapshot) {
+        synchronized(this) {
+            savedVersion = -1;
+            requestedVersion = -1;
+        }
+        pendingSave = true;
+        commit(snapshot);
+    }
+
+    /**
+     * Marks the watchlist as modified if a new snapshot was published since the last call. It will be saved to file by
+     * the background writer.
+     */
+    private void requestSave() {
+        synchronized(this) {
+            long version = latest.snapshot.getVersion();
+            if(version == requestedVersion) {
+                skippedSaves.incrementAndGet();
+            } else {
+                requestedVersion = version;
+                persister.markDirty();
+            }
+        }
+    }
+
+    /**
+     * @return number of save requests and file writes that were skipped because the watchlist was not modified
+     */
+    public long getSkippedSaves() {
+        return skippedSaves.get();
+    }
+
+    @Override
+    public void addReason(String name, UUID uuid, String ip, WatchlistReason reason) {
+        journal.addReason(name, uuid, ip, reason);
+    }
+
+    @Override
+    public void removeReason(String name, int index, WatchlistReason reason) {
+        journal.removeReason(name, index, reason);
+    }
+
+    @Override
+    public void removePlayer(String name) {
+        journal.removePlayer(name);
+    }
+
+    @Override
+    public void bindUuid(String name, UUID uuid) {
+        journal.bindUuid(name, uuid);
+    }
+
+    @Override
+    public void rename(String oldName, String newName, boolean nameUnknown) {
+        journal.rename(oldName, newName, nameUnknown);
+    }
+
+    @Override
+    public void merge(String source, String target) {
+        journal.merge(source, target);
+    }
+
+    @Override
+    public List<Map.Entry<String,WatchlistReason>> findByInitiator(String initiator) {
+        return find(data -> true,
+                    reason -> reason.getInitiator() != null && reason.getInitiator().equalsIgnoreCase(initiator));
+    }
+
+    /**
+     * Entries without reasons since the given time are skipped without loading their reasons.
+     */
+    @Override
+    public List<Map.Entry<String,WatchlistReason>> findSince(Date since) {
+        return find(data -> data.getLatestReasonTime() >= since.getTime(),
+                    reason -> !reason.getCreationTime().before(since));
+    }
+
+    /**
+     * Searches the latest published snapshot without blocking modifications.
+     */
+    private List<Map.Entry<String,WatchlistReason>> find(Predicate<WatchlistEntry> entryFilter,
+                                                        Predicate<WatchlistReason> filter) {
+        List<Map.Entry<String,WatchlistReason>> result = new ArrayList<>();
+        PublishedSnapshot published = latest;
+        if(published == null) {
+            return result;
+        }
+        for(WatchlistEntry entry: published.snapshot.getEntries()) {
+            if(entryFilter.test(entry)) {
+                entry.getReasons().stream().filter(filter)
+                        .forEach(reason -> result.add(new AbstractMap.SimpleImmutableEntry<>(entry.getName(), reason)));
+            }
+        }
+        result.sort(Comparator.comparing(entry -> entry.getValue().getCreationTime()));
+        return result;
+    }
+
+    @Override
+    public void flush() {
+        persister.flush();
+    }
+
+    @Override
+    public void close() {
+        persister.shutdown();
+        journal.close();
+        binarySnapshot.close();
+        Logger.getLogger(ModerationPlugin.class.getName()).info("Watchlist saved " + persister.getWriteCount()
+                + " times, " + persister.getCoalescedCount() + " changes merged into earlier writes, "
+                + getSkippedSaves() + " unchanged saves skipped.");
+    }
+
+    private static class PublishedSnapshot {
+
+        private final WatchlistSnapshot snapshot;
+        private final long journalSequence;
+
+        private PublishedSnapshot(WatchlistSnapshot snapshot, long journalSequence) {
+            this.snapshot = snapshot;
+            this.journalSequence = journalSequence;
+        }
+    }
+}
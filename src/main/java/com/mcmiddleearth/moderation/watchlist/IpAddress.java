@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * IP address packed into its binary form (4 bytes for IPv4, 16 bytes for IPv6). Used as hash key for alt detection.
+ */
+
+public final class IpAddress {
+
+    private final byte[] address;
+
+    private final int hash;
+
+    private IpAddress(byte[] address) {
+        this.address = address;
+        this.hash = Arrays.hashCode(address);
+    }
+
+    public static IpAddress of(InetAddress inetAddress) {
+        return (inetAddress != null ? new IpAddress(inetAddress.getAddress()) : null);
+    }
+
+    /**
+     * Get the IP address of a connected player without creating a string representation.
+     * @param player connected player
+     * @return IP address or null if the player is not connected by IP
+     */
+    public static IpAddress of(ProxiedPlayer player) {
+        if(player != null) {
+            SocketAddress address = player.getSocketAddress();
+            if (address instanceof InetSocketAddress) {
+                return of(((InetSocketAddress) address).getAddress());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse an IP address literal as stored in watchlist.yml. No DNS lookup is made.
+     * @param ip IPv4 or IPv6 literal
+     * @return IP address or null if ip is null, 'unknown' or not a valid literal
+     */
+    public static IpAddress parse(String ip) {
+        if(ip == null || ip.isEmpty() || ip.equals("unknown")) {
+            return null;
+        }
+        if(ip.indexOf(':') < 0) {
+            byte[] bytes = new byte[4];
+            int part = 0;
+            int value = -1;
+            for(int i = 0; i < ip.length(); i++) {
+                char c = ip.charAt(i);
+                if(c == '.') {
+                    if(value < 0 || part == 3) {
+                        return null;
+                    }
+                    bytes[part++] = (byte) value;
+                    value = -1;
+                } else if(c >= '0' && c <= '9') {
+                    value = (value < 0 ? 0 : value * 10) + (c - '0');
+                    if(value > 255) {
+                        return null;
+                    }
+                } else {
+                    return null;
+                }
+            }
+            if(value < 0 || part != 3) {
+                return null;
+            }
+            bytes[3] = (byte) value;
+            return new IpAddress(bytes);
+        }
+        try {
+            // literals containing ':' are always parsed as IPv6 address without name service lookup
+            return of(InetAddress.getByName(ip));
+        } catch (UnknownHostException | SecurityException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof IpAddress && hash == ((IpAddress) other).hash
+                && Arrays.equals(address, ((IpAddress) other).address);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return InetAddress.getByAddress(address).getHostAddress();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Directory of all players who ever joined the proxy with their uuid and the time they were last seen. Survives
+ * restarts and keeps the heap usage flat regardless of the number of players:
+ * <ul>
+ *     <li>Recently seen players are kept in a bounded LRU hot set on the heap. Only joins promote players to the hot
+ *         set, lookups don't change it.</li>
+ *     <li>All players are stored in the memory mapped file knownplayers.dat with fixed size records. The file is
+ *         mapped in segments, so it can grow without remapping.</li>
+ *     <li>Records are found by name and uuid with open addressing hash tables in direct (off-heap) memory. They are
+ *         rebuilt from the file at startup.</li>
+ * </ul>
+ * <pre>
+ * record 0 (header): int magic, int format version, int record count
+ * player record: byte name length, name (UTF-8, max 31 bytes), long uuid msb, long uuid lsb, long last seen
+ * </pre>
+ */
+
+public class KnownPlayerDirectory {
+
+    private static final int MAGIC = 0x4D434B50; // "MCKP"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int RECORD_SIZE = 64;
+    private static final int MAX_NAME_BYTES = 31;
+    private static final int UUID_OFFSET = 32;
+    private static final int LAST_SEEN_OFFSET = 48;
+
+    private static final int RECORDS_PER_SEGMENT = 1 << 16;
+    private static final long SEGMENT_SIZE = (long) RECORD_SIZE * RECORDS_PER_SEGMENT;
+
+    private static final int MIN_TABLE_CAPACITY = 1 << 12;
+
+    private final File file;
+
+    private FileChannel channel;
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    /**
+     * Number of player records in the file. Record numbers start with 1, 0 marks empty hash table slots.
+     */
+    private int recordCount;
+
+    /**
+     * Record numbers by hash of the lower case name and by hash of the uuid. A record may be found in the uuid table
+     * under a uuid it doesn't have any more after its name was taken by another player, so matches are checked.
+     */
+    private IntBuffer nameTable;
+    private IntBuffer uuidTable;
+    private int uuidTableSize;
+
+    /**
+     * Recently seen players by lower case name, least recently seen first.
+     */
+    private final LinkedHashMap<String,KnownPlayer> hotSet;
+
+    private final HotSetListener listener;
+
+    /**
+     * Receives the names of players added to and removed from the hot set.
+     */
+    public interface HotSetListener {
+        void added(String name);
+        void removed(String name);
+    }
+
+    /**
+     * @param file backing file, created if missing
+     * @param hotSetSize maximum number of players kept on the heap
+     * @param listener receives changes of the hot set
+     */
+    public KnownPlayerDirectory(File file, int hotSetSize, HotSetListener listener) {
+        this.file = file;
+        this.listener = listener;
+        int maxSize = Math.max(1, hotSetSize);
+        hotSet = new LinkedHashMap<String,KnownPlayer>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,KnownPlayer> eldest) {
+                if(size() > maxSize) {
+                    listener.removed(eldest.getValue().getName());
+                    return true;
+                }
+                return false;
+            }
+        };
+        try {
+            open();
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Opening " + file.getName()
+                    + " failed! Known players are not saved.", ex);
+            close();
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        ByteBuffer header = segment(0);
+        int magic = header.getInt(0);
+        if(magic == 0) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, FORMAT_VERSION);
+            header.putInt(8, 0);
+        } else if(magic != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a known players file: " + file.getName());
+        }
+        recordCount = header.getInt(8);
+        segment(recordCount);
+        rebuildTables(recordCount);
+        Logger.getLogger(ModerationPlugin.class.getName()).info("Indexed " + recordCount + " known players.");
+    }
+
+    /**
+     * Stores that a player joined.
+     * @param name player name
+     * @param uuid player uuid
+     * @param time join time in epoch milliseconds
+     */
+    public synchronized void seen(String name, UUID uuid, long time) {
+        String lowerName = name.toLowerCase();
+        putHot(lowerName, new KnownPlayer(name, uuid, time));
+        if(channel == null) {
+            return;
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if(nameBytes.length > MAX_NAME_BYTES) {
+            // not a valid minecraft name, only kept in the hot set
+            return;
+        }
+        try {
+            int record = findByName(lowerName);
+            if(record == 0) {
+                if((recordCount + 1L) * 2 > nameTable.capacity() || (uuidTableSize + 1L) * 2 > uuidTable.capacity()) {
+                    rebuildTables(recordCount + 1);
+                }
+                record = recordCount + 1;
+                writeRecord(record, nameBytes, uuid, time);
+                recordCount = record;
+                segment(0).putInt(8, recordCount);
+                insert(nameTable, hash(lowerName), record);
+                insert(uuidTable, hash(uuid), record);
+                uuidTableSize++;
+            } else {
+                boolean uuidChanged = !uuid.equals(readUuid(record));
+                writeRecord(record, nameBytes, uuid, time);
+                if(uuidChanged) {
+                    if((uuidTableSize + 1L) * 2 > uuidTable.capacity()) {
+                        rebuildTables(recordCount);
+                    } else {
+                        insert(uuidTable, hash(uuid), record);
+                        uuidTableSize++;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Writing " + file.getName()
+                    + " failed! Known players are not saved any more.", ex);
+            close();
+        }
+    }
+
+    /**
+     * Looks up a player without promoting it to the hot set.
+     * @param name player name in any case
+     * @return known player or null if the player never joined
+     */
+    public synchronized KnownPlayer get(String name) {
+        if(name == null) {
+            return null;
+        }
+        String lowerName = name.toLowerCase();
+        KnownPlayer player = hotSet.get(lowerName);
+        if(player == null && channel != null) {
+            int record = findByName(lowerName);
+            if(record != 0) {
+                player = readRecord(record);
+            }
+        }
+        return player;
+    }
+
+    /**
+     * @param uuid player uuid
+     * @return known player with the name the uuid was last seen with or null if the player never joined
+     */
+    public synchronized KnownPlayer get(UUID uuid) {
+        if(uuid == null) {
+            return null;
+        }
+        KnownPlayer result = null;
+        if(channel != null) {
+            int mask = uuidTable.capacity() - 1;
+            for(int slot = hash(uuid) & mask; uuidTable.get(slot) != 0; slot = (slot + 1) & mask) {
+                int record = uuidTable.get(slot);
+                if(uuid.equals(readUuid(record))) {
+                    KnownPlayer player = readRecord(record);
+                    if(result == null || player.getLastSeen() > result.getLastSeen()) {
+                        result = player;
+                    }
+                }
+            }
+        } else {
+            for(KnownPlayer player: hotSet.values()) {
+                if(uuid.equals(player.getUuid()) && (result == null || player.getLastSeen() > result.getLastSeen())) {
+                    result = player;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return players of the hot set by name with original case, most recently seen last
+     */
+    public synchronized Map<String,UUID> getRecentPlayers() {
+        Map<String,UUID> result = new LinkedHashMap<>(hotSet.size() * 4 / 3 + 1);
+        hotSet.values().forEach(player -> result.put(player.getName(), player.getUuid()));
+        return result;
+    }
+
+    /**
+     * @return number of known players
+     */
+    public synchronized int size() {
+        return (channel != null ? recordCount : hotSet.size());
+    }
+
+    /**
+     * Writes all changes to disk and releases the file. Afterwards only the hot set is used.
+     * <p>
+     * Java 8 has no public API to unmap a file, so the mapped segments and the direct memory of the hash tables are
+     * released by the garbage collector. All references to them are dropped here, so they become unreachable
+     * immediately. Until they are collected the mappings still count towards the virtual memory of the process and
+     * the file may stay locked on Windows.
+     */
+    public synchronized void close() {
+        for(MappedByteBuffer segment: segments) {
+            try {
+                segment.force();
+            } catch (RuntimeException ex) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Writing " + file.getName()
+                        + " failed!", ex);
+                break;
+            }
+        }
+        segments.clear();
+        nameTable = null;
+        uuidTable = null;
+        uuidTableSize = 0;
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Closing " + file.getName()
+                        + " failed!", ex);
+            }
+            channel = null;
+        }
+    }
+
+    private void putHot(String lowerName, KnownPlayer player) {
+        // removed first to move the player to the end of the insertion order
+        KnownPlayer previous = hotSet.remove(lowerName);
+        hotSet.put(lowerName, player);
+        if(previous == null || !previous.getName().equals(player.getName())) {
+            listener.added(player.getName());
+        }
+    }
+
+    private void rebuildTables(int expectedRecords) {
+        int capacity = MIN_TABLE_CAPACITY;
+        while(capacity < expectedRecords * 2L + 2) {
+            capacity <<= 1;
+        }
+        nameTable = ByteBuffer.allocateDirect(capacity * 4).asIntBuffer();
+        uuidTable = ByteBuffer.allocateDirect(capacity * 4).asIntBuffer();
+        for(int record = 1; record <= recordCount; record++) {
+            insert(nameTable, hash(readName(record).toLowerCase()), record);
+            insert(uuidTable, hash(readUuid(record)), record);
+        }
+        uuidTableSize = recordCount;
+    }
+
+    private int findByName(String lowerName) {
+        int mask = nameTable.capacity() - 1;
+        for(int slot = hash(lowerName) & mask; nameTable.get(slot) != 0; slot = (slot + 1) & mask) {
+            int record = nameTable.get(slot);
+            if(readName(record).equalsIgnoreCase(lowerName)) {
+                return record;
+            }
+        }
+        return 0;
+    }
+
+    private static void insert(IntBuffer table, int hash, int record) {
+        int mask = table.capacity() - 1;
+        int slot = hash & mask;
+        while(table.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.put(slot, record);
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void writeRecord(int record, byte[] nameBytes, UUID uuid, long time) throws IOException {
+        ByteBuffer segment = segment(record);
+        int offset = offset(record);
+        segment.put(offset, (byte) nameBytes.length);
+        for(int i = 0; i < nameBytes.length; i++) {
+            segment.put(offset + 1 + i, nameBytes[i]);
+        }
+        segment.putLong(offset + UUID_OFFSET, uuid.getMostSignificantBits());
+        segment.putLong(offset + UUID_OFFSET + 8, uuid.getLeastSignificantBits());
+        segment.putLong(offset + LAST_SEEN_OFFSET, time);
+    }
+
+    private KnownPlayer readRecord(int record) {
+        return new KnownPlayer(readName(record), readUuid(record),
+                               segments.get(record / RECORDS_PER_SEGMENT).getLong(offset(record) + LAST_SEEN_OFFSET));
+    }
+
+    private String readName(int record) {
+        ByteBuffer segment = segments.get(record / RECORDS_PER_SEGMENT);
+        int offset = offset(record);
+        byte[] nameBytes = new byte[Math.min(segment.get(offset) & 0xFF, MAX_NAME_BYTES)];
+        for(int i = 0; i < nameBytes.length; i++) {
+            nameBytes[i] = segment.get(offset + 1 + i);
+        }
+        return new String(nameBytes, StandardCharsets.UTF_8);
+    }
+
+    private UUID readUuid(int record) {
+        ByteBuffer segment = segments.get(record / RECORDS_PER_SEGMENT);
+        int offset = offset(record);
+        return new UUID(segment.getLong(offset + UUID_OFFSET), segment.getLong(offset + UUID_OFFSET + 8));
+    }
+
+    private static int offset(int record) {
+        return (record % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+    }
+
+    /**
+     * Maps the segments of the file up to the one containing the record. Mapping beyond the end extends the file.
+     */
+    private ByteBuffer segment(int record) throws IOException {
+        int index = record / RECORDS_PER_SEGMENT;
+        while(segments.size() <= index) {
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+        }
+        return segments.get(index);
+    }
+
+    /**
+     * Entry of the known player directory.
+     */
+    public static final class KnownPlayer {
+
+        private final String name;
+        private final UUID uuid;
+        private final long lastSeen;
+
+        private KnownPlayer(String name, UUID uuid, long lastSeen) {
+            this.name = name;
+            this.uuid = uuid;
+            this.lastSeen = lastSeen;
+        }
+
+        /**
+         * @return name with original case
+         */
+        public String getName() {
+            return name;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        /**
+         * @return time the player last joined in epoch milliseconds
+         */
+        public long getLastSeen() {
+            return lastSeen;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the trigrams (substrings of three characters) of lower case player names. A substring search only needs to
+ * test the names containing the least frequent trigram of the query instead of all names.
+ * <p>
+ * The index is updated by a single writer, readers don't lock. Names are added before they are visible in the
+ * watchlist snapshot and removed afterwards, so searches need to check the candidates against the snapshot.
+ */
+
+public class NameTrigramIndex {
+
+    private final Map<Long,Set<String>> postings = new ConcurrentHashMap<>();
+
+    /**
+     * @param lowerName lower case name
+     */
+    public void add(String lowerName) {
+        for(int i = 0; i + 3 <= lowerName.length(); i++) {
+            postings.computeIfAbsent(trigram(lowerName, i), key -> ConcurrentHashMap.newKeySet()).add(lowerName);
+        }
+    }
+
+    /**
+     * @param lowerName lower case name
+     */
+    public void remove(String lowerName) {
+        for(int i = 0; i + 3 <= lowerName.length(); i++) {
+            postings.computeIfPresent(trigram(lowerName, i), (key, names) -> {
+                names.remove(lowerName);
+                return (names.isEmpty() ? null : names);
+            });
+        }
+    }
+
+    /**
+     * @param lowerQuery lower case substring with at least three characters
+     * @return names which contain the rarest trigram of the query, empty if any trigram of the query is unknown. This
+     *         is a superset of the names containing the query, callers need to filter it.
+     */
+    public Collection<String> getCandidates(String lowerQuery) {
+        Set<String> smallest = null;
+        for(int i = 0; i + 3 <= lowerQuery.length(); i++) {
+            Set<String> names = postings.get(trigram(lowerQuery, i));
+            if(names == null) {
+                return Collections.emptyList();
+            }
+            if(smallest == null || names.size() < smallest.size()) {
+                smallest = names;
+            }
+        }
+        return (smallest != null ? smallest : Collections.emptyList());
+    }
+
+    private static long trigram(String name, int index) {
+        return ((long) name.charAt(index) << 32) | ((long) name.charAt(index + 1) << 16) | name.charAt(index + 2);
+    }
+}
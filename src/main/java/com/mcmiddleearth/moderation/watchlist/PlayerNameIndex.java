@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Case insensitive sorted index of the player names used for tab completion. Names of online players, recently seen
+ * players and watched players are added and removed when these change, so completing a prefix only walks the range
+ * of matching names: O(log n + results) instead of filtering and sorting all names on each keystroke.
+ */
+
+public class PlayerNameIndex {
+
+    public static final int ONLINE = 1;
+    public static final int KNOWN = 2;
+    public static final int WATCHLIST = 4;
+    public static final int ALL = ONLINE | KNOWN | WATCHLIST;
+
+    /**
+     * Names by lower case name. Entries are immutable and replaced atomically.
+     */
+    private final ConcurrentSkipListMap<String,IndexedName> names = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param name player name
+     * @param source one of ONLINE, KNOWN or WATCHLIST
+     */
+    public void add(String name, int source) {
+        names.compute(name.toLowerCase(), (key, indexed) -> new IndexedName(name, (indexed != null ? indexed.sources : 0)
+                                                                                  | source));
+    }
+
+    /**
+     * @param name player name in any case
+     * @param source one of ONLINE, KNOWN or WATCHLIST
+     */
+    public void remove(String name, int source) {
+        names.computeIfPresent(name.toLowerCase(), (key, indexed) -> {
+            int sources = indexed.sources & ~source;
+            return (sources != 0 ? new IndexedName(indexed.name, sources) : null);
+        });
+    }
+
+    /**
+     * @param prefix start of the name in any case
+     * @param sources sources of the names to include, combination of ONLINE, KNOWN and WATCHLIST
+     * @param limit maximum number of names
+     * @return matching names sorted case insensitive
+     */
+    public List<String> complete(String prefix, int sources, int limit) {
+        String lowerPrefix = prefix.toLowerCase();
+        ConcurrentNavigableMap<String,IndexedName> range = (lowerPrefix.isEmpty() ? names
+                : names.subMap(lowerPrefix, true, lowerPrefix + Character.MAX_VALUE, false));
+        List<String> result = new ArrayList<>(Math.min(limit, 16));
+        for(Map.Entry<String,IndexedName> entry: range.entrySet()) {
+            if(result.size() >= limit) {
+                break;
+            }
+            if((entry.getValue().sources & sources) != 0) {
+                result.add(entry.getValue().name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param name player name in any case
+     * @param sources combination of ONLINE, KNOWN and WATCHLIST
+     * @return true if the name is indexed for one of the sources
+     */
+    public boolean contains(String name, int sources) {
+        IndexedName indexed = names.get(name.toLowerCase());
+        return indexed != null && (indexed.sources & sources) != 0;
+    }
+
+    private static final class IndexedName {
+
+        private final String name;
+        private final int sources;
+
+        private IndexedName(String name, int sources) {
+            this.name = name;
+            this.sources = sources;
+        }
+    }
+}
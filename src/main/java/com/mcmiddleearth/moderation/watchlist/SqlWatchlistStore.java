@@ -0,0 +1,597 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+import java.util.Date;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores the watchlist in the embedded SQLite database watchlist.db. Each modification updates only the affected rows.
+ * Statements are executed in order by a background thread, so modifications don't wait for disk writes.
+ * <p>
+ * If the database is empty and a watchlist.yml or watchlist.dat exists, these files are migrated to the database once
+ * and renamed to *.migrated afterwards.
+ * <p>
+ * Reasons are identified by their row id, which is kept in the {@link WatchlistReason} objects. Ids of new reasons
+ * are assigned when they are reported, so a removal can address the row even if the insert is still queued.
+ */
+
+public class SqlWatchlistStore implements WatchlistStore {
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS watchlist_player (id INTEGER PRIMARY KEY, name VARCHAR(64) NOT NULL,"
+                    + " name_lower VARCHAR(64) NOT NULL UNIQUE, uuid CHAR(36), ip VARCHAR(64), name_unknown BOOLEAN NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS watchlist_player_uuid ON watchlist_player (uuid)",
+            "CREATE INDEX IF NOT EXISTS watchlist_player_ip ON watchlist_player (ip)",
+            "CREATE TABLE IF NOT EXISTS watchlist_reason (id INTEGER PRIMARY KEY,"
+                    + " player_id INTEGER NOT NULL REFERENCES watchlist_player (id), creation_time BIGINT NOT NULL,"
+                    + " description TEXT, initiator VARCHAR(64) COLLATE NOCASE, name_at_creation_time VARCHAR(64),"
+                    + " by_moderator BOOLEAN NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS watchlist_reason_player ON watchlist_reason (player_id, creation_time)",
+            "CREATE INDEX IF NOT EXISTS watchlist_reason_time ON watchlist_reason (creation_time)",
+            "CREATE INDEX IF NOT EXISTS watchlist_reason_initiator ON watchlist_reason (initiator)"
+    };
+
+    private static final String REASON_COLUMNS = "r.id, r.creation_time, r.description, r.initiator, r.name_at_creation_time,"
+                                                 + " r.by_moderator";
+
+    private static final String REASON_INSERT = "INSERT INTO watchlist_reason (id, player_id, creation_time,"
+            + " description, initiator, name_at_creation_time, by_moderator) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String[] MIGRATED_FILES = {"watchlist.yml", "watchlist.dat", "watchlist.journal",
+                                                    "watchlist.journal.old"};
+
+    private final Connection connection;
+
+    private volatile Thread writerThread;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MCME-Moderation watchlist db writer");
+        thread.setDaemon(true);
+        writerThread = thread;
+        return thread;
+    });
+
+    /**
+     * Highest reason id assigned so far.
+     */
+    private final AtomicLong lastReasonId = new AtomicLong();
+
+    /**
+     * Set when writing a modification failed. The whole watchlist is written again by the writer thread after the next
+     * modification then.
+     */
+    private volatile boolean writeFailed = false;
+
+    /**
+     * Store of watchlist.yml or watchlist.dat loaded for migration. The loaded entries are written to the database with
+     * the first commit.
+     */
+    private FileWatchlistStore migrationSource;
+
+    /**
+     * Opens the database and creates missing tables.
+     * @throws SQLException if the database can't be opened or the SQLite driver is missing
+     */
+    public SqlWatchlistStore() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException ex) {
+            throw new SQLException("SQLite JDBC driver org.sqlite.JDBC not found! watchlist.storage.format 'sql'"
+                    + " requires the library org.xerial:sqlite-jdbc, which is declared in bungee.yml.", ex);
+        }
+        File databaseFile = new File(ModerationPlugin.getInstance().getDataFolder(), "watchlist.db");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getPath());
+        try (Statement statement = connection.createStatement()) {
+            for(String sql: SCHEMA) {
+                statement.execute(sql);
+            }
+            try (ResultSet result = statement.executeQuery("SELECT MAX(id) FROM watchlist_reason")) {
+                lastReasonId.set(result.next() ? result.getLong(1) : 0);
+            }
+            connection.setAutoCommit(false);
+        } catch (SQLException ex) {
+            connection.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void load(EntryConsumer consumer, WatchlistChanges changes) {
+        long start = System.nanoTime();
+        try {
+            if(isEmpty() && loadForMigration(consumer, changes)) {
+                return;
+            }
+            // reasons are loaded on first access
+            int count = 0;
+            try (Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery("SELECT p.id, p.name, p.uuid, p.ip, p.name_unknown,"
+                         + " COUNT(r.id), MAX(r.creation_time) FROM watchlist_player p"
+                         + " LEFT JOIN watchlist_reason r ON r.player_id = p.id GROUP BY p.id")) {
+                while(result.next()) {
+                    String uuid = result.getString(3);
+                    consumer.accept(result.getString(2), new WatchlistPlayerData((uuid != null ? UUID.fromString(uuid) : null),
+                            result.getString(4), result.getBoolean(5), result.getInt(6), result.getLong(7),
+                            new StoredReasons(result.getLong(1))));
+                    count++;
+                }
+            }
+            connection.commit();
+            Logger.getLogger(ModerationPlugin.class.getName()).info("Loaded " + count
+                    + " watchlist entries from watchlist.db in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+        } catch (SQLException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.SEVERE, "Loading watchlist from watchlist.db failed!", ex);
+        }
+    }
+
+    private boolean isEmpty() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM watchlist_player")) {
+            return !result.next() || result.getLong(1) == 0;
+        }
+    }
+
+    /**
+     * Loads watchlist.yml or watchlist.dat including the journal to import it into the empty database.
+     * @return false if there is nothing to migrate
+     */
+    private boolean loadForMigration(EntryConsumer consumer, WatchlistChanges changes) {
+        File dataFolder = ModerationPlugin.getInstance().getDataFolder();
+        if(!new File(dataFolder, "watchlist.yml").exists() && !new File(dataFolder, "watchlist.dat").exists()) {
+            return false;
+        }
+        migrationSource = new FileWatchlistStore();
+        migrationSource.load(consumer, changes);
+        return true;
+    }
+
+    /**
+     * Writes the loaded watchlist to the database and renames the migrated files.
+     */
+    private void migrate(WatchlistSnapshot snapshot) {
+        // reasons need to be loaded before the source files are closed
+        List<EntryRow> rows = getEntryRows(snapshot);
+        migrationSource.close();
+        migrationSource = null;
+        try {
+            writeAll(rows);
+            connection.commit();
+        } catch (SQLException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.SEVERE, "Migrating watchlist to watchlist.db failed!", ex);
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackEx) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Rollback of watchlist.db failed!", rollbackEx);
+            }
+            writeFailed = true;
+            return;
+        }
+        File dataFolder = ModerationPlugin.getInstance().getDataFolder();
+        for(String fileName: MIGRATED_FILES) {
+            File file = new File(dataFolder, fileName);
+            if(file.exists() && !file.renameTo(new File(dataFolder, fileName + ".migrated"))) {
+                Logger.getLogger(ModerationPlugin.class.getName()).warning("Renaming migrated " + fileName + " failed!");
+            }
+        }
+        Logger.getLogger(ModerationPlugin.class.getName()).info("Migrated " + rows.size()
+                + " watchlist entries to watchlist.db.");
+    }
+
+    @Override
+    public void commit(WatchlistSnapshot snapshot) {
+        if(migrationSource != null) {
+            migrate(snapshot);
+        } else if(writeFailed) {
+            writeFailed = false;
+            saveAll(snapshot);
+        }
+    }
+
+    /**
+     * The snapshot is written by the writer thread, the calling thread only queues it. Modifications reported
+     * afterwards are queued after writeAll.
+     */
+    @Override
+    public void saveAll(WatchlistSnapshot snapshot) {
+        if(migrationSource != null) {
+            migrate(snapshot);
+            return;
+        }
+        execute(() -> writeAll(getEntryRows(snapshot)));
+    }
+
+    /**
+     * Loads the reasons of all entries. Call before the player ids are changed by writeAll, loaders keep the loaded
+     * reasons afterwards. May be called by the writer thread.
+     */
+    private List<EntryRow> getEntryRows(WatchlistSnapshot snapshot) {
+        List<EntryRow> rows = new ArrayList<>(snapshot.size());
+        for(WatchlistEntry entry: snapshot.getEntries()) {
+            rows.add(new EntryRow(entry.getName(), entry.getUuid(), entry.getIp(), entry.isNameUnknown(),
+                                  entry.getReasons()));
+        }
+        return rows;
+    }
+
+    private void writeAll(List<EntryRow> rows) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM watchlist_reason");
+            statement.executeUpdate("DELETE FROM watchlist_player");
+        }
+        try (PreparedStatement playerInsert = connection.prepareStatement("INSERT INTO watchlist_player"
+                     + " (id, name, name_lower, uuid, ip, name_unknown) VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement reasonInsert = connection.prepareStatement(REASON_INSERT)) {
+            long id = 0;
+            for(EntryRow row: rows) {
+                id++;
+                playerInsert.setLong(1, id);
+                playerInsert.setString(2, row.name);
+                playerInsert.setString(3, row.name.toLowerCase());
+                playerInsert.setString(4, (row.uuid != null ? row.uuid.toString() : null));
+                playerInsert.setString(5, toColumn(row.ip));
+                playerInsert.setBoolean(6, row.nameUnknown);
+                playerInsert.addBatch();
+                for(WatchlistReason reason: row.reasons) {
+                    if(reason.getStoreId() == 0) {
+                        reason.setStoreId(lastReasonId.incrementAndGet());
+                    }
+                    setReason(reasonInsert, id, reason);
+                    reasonInsert.addBatch();
+                }
+            }
+            playerInsert.executeBatch();
+            reasonInsert.executeBatch();
+        }
+    }
+
+    @Override
+    public void addReason(String name, UUID uuid, String ip, WatchlistReason reason) {
+        reason.setStoreId(lastReasonId.incrementAndGet());
+        execute(() -> {
+            Long id = getPlayerId(name);
+            if(id == null) {
+                try (PreparedStatement statement = connection.prepareStatement("INSERT INTO watchlist_player"
+                        + " (name, name_lower, uuid, ip, name_unknown) VALUES (?, ?, ?, ?, ?)")) {
+                    statement.setString(1, name);
+                    statement.setString(2, name.toLowerCase());
+                    statement.setString(3, (uuid != null ? uuid.toString() : null));
+                    statement.setString(4, toColumn(ip));
+                    statement.setBoolean(5, false);
+                    statement.executeUpdate();
+                }
+                id = getPlayerId(name);
+            } else if(ip != null) {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "UPDATE watchlist_player SET ip = ? WHERE id = ?")) {
+                    statement.setString(1, toColumn(ip));
+                    statement.setLong(2, id);
+                    statement.executeUpdate();
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement(REASON_INSERT)) {
+                setReason(statement, id, reason);
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public void removeReason(String name, int index, WatchlistReason reason) {
+        long reasonId = (reason != null ? reason.getStoreId() : 0);
+        if(reasonId == 0) {
+            // not stored yet, e.g. after a failed write, the whole watchlist is written with the next commit
+            writeFailed = true;
+            return;
+        }
+        execute(() -> {
+            try (PreparedStatement statement = connection.prepareStatement("DELETE FROM watchlist_reason WHERE id = ?")) {
+                statement.setLong(1, reasonId);
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public void removePlayer(String name) {
+        execute(() -> deletePlayer(name.toLowerCase()));
+    }
+
+    private void deletePlayer(String nameLower) throws SQLException {
+        try (PreparedStatement reasons = connection.prepareStatement("DELETE FROM watchlist_reason WHERE player_id IN"
+                     + " (SELECT id FROM watchlist_player WHERE name_lower = ?)");
+             PreparedStatement player = connection.prepareStatement("DELETE FROM watchlist_player WHERE name_lower = ?")) {
+            reasons.setString(1, nameLower);
+            reasons.executeUpdate();
+            player.setString(1, nameLower);
+            player.executeUpdate();
+        }
+    }
+
+    @Override
+    public void bindUuid(String name, UUID uuid) {
+        execute(() -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE watchlist_player SET uuid = ? WHERE name_lower = ? AND uuid IS NULL")) {
+                statement.setString(1, uuid.toString());
+                statement.setString(2, name.toLowerCase());
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public void rename(String oldName, String newName, boolean nameUnknown) {
+        execute(() -> {
+            if(!oldName.equalsIgnoreCase(newName)) {
+                deletePlayer(newName.toLowerCase());
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE watchlist_player SET name = ?, name_lower = ?, name_unknown = ? WHERE name_lower = ?")) {
+                statement.setString(1, newName);
+                statement.setString(2, newName.toLowerCase());
+                statement.setBoolean(3, nameUnknown);
+                statement.setString(4, oldName.toLowerCase());
+                statement.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public void merge(String source, String target) {
+        if(source.equalsIgnoreCase(target)) {
+            return;
+        }
+        execute(() -> {
+            Long sourceId = getPlayerId(source);
+            Long targetId = getPlayerId(target);
+            if(sourceId != null && targetId != null) {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "UPDATE watchlist_reason SET player_id = ? WHERE player_id = ?")) {
+                    statement.setLong(1, targetId);
+                    statement.setLong(2, sourceId);
+                    statement.executeUpdate();
+                }
+                deletePlayer(source.toLowerCase());
+            }
+        });
+    }
+
+    /**
+     * Loads the reasons of a watchlist entry on first access. The query runs on the writer thread after all
+     * modifications which were made before.
+     */
+    private class StoredReasons implements WatchlistPlayerData.ReasonLoader {
+
+        private final long playerId;
+
+        private volatile List<WatchlistReason> loaded;
+
+        private StoredReasons(long playerId) {
+            this.playerId = playerId;
+        }
+
+        @Override
+        public List<WatchlistReason> load() {
+            List<WatchlistReason> result = loaded;
+            if(result == null) {
+                result = Collections.unmodifiableList(query());
+                loaded = result;
+            }
+            return result;
+        }
+
+        private List<WatchlistReason> query() {
+            Callable<List<WatchlistReason>> query = () -> {
+                List<WatchlistReason> reasons = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement("SELECT " + REASON_COLUMNS
+                        + " FROM watchlist_reason r WHERE r.player_id = ? ORDER BY r.creation_time, r.id")) {
+                    statement.setLong(1, playerId);
+                    try (ResultSet result = statement.executeQuery()) {
+                        while(result.next()) {
+                            reasons.add(readReason(result, 1));
+                        }
+                    }
+                } finally {
+                    connection.commit();
+                }
+                return reasons;
+            };
+            if(Thread.currentThread() == writerThread) {
+                try {
+                    return query.call();
+                } catch (Exception ex) {
+                    throw new IllegalStateException("Loading watchlist reasons from watchlist.db failed!", ex);
+                }
+            }
+            try {
+                return executor.submit(query).get();
+            } catch (RejectedExecutionException ex) {
+                // store closed, no concurrent writes any more
+                try {
+                    return query.call();
+                } catch (Exception callEx) {
+                    throw new IllegalStateException("Loading watchlist reasons from watchlist.db failed!", callEx);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Loading watchlist reasons from watchlist.db interrupted!", ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Loading watchlist reasons from watchlist.db failed!", ex.getCause());
+            }
+        }
+    }
+
+    private Long getPlayerId(String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT id FROM watchlist_player WHERE name_lower = ?")) {
+            statement.setString(1, name.toLowerCase());
+            try (ResultSet result = statement.executeQuery()) {
+                return (result.next() ? result.getLong(1) : null);
+            }
+        }
+    }
+
+    @Override
+    public List<Map.Entry<String,WatchlistReason>> findByInitiator(String initiator) {
+        return findReasons("r.initiator = ?", statement -> statement.setString(1, initiator));
+    }
+
+    @Override
+    public List<Map.Entry<String,WatchlistReason>> findSince(Date since) {
+        return findReasons("r.creation_time >= ?", statement -> statement.setLong(1, since.getTime()));
+    }
+
+    private List<Map.Entry<String,WatchlistReason>> findReasons(String condition, ParameterSetter parameters) {
+        // run by the writer thread to see all modifications made before
+        Future<List<Map.Entry<String,WatchlistReason>>> future = executor.submit(() -> {
+            List<Map.Entry<String,WatchlistReason>> result = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT p.name, " + REASON_COLUMNS
+                    + " FROM watchlist_reason r JOIN watchlist_player p ON p.id = r.player_id WHERE " + condition
+                    + " ORDER BY r.creation_time, r.id")) {
+                parameters.set(statement);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while(resultSet.next()) {
+                        result.add(new AbstractMap.SimpleImmutableEntry<>(resultSet.getString(1), readReason(resultSet, 2)));
+                    }
+                }
+            } finally {
+                connection.commit();
+            }
+            return result;
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Querying watchlist.db failed!", ex.getCause());
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void flush() {
+        try {
+            executor.submit(() -> {}).get();
+        } catch (RejectedExecutionException | ExecutionException ex) {
+            // already closed
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                Logger.getLogger(ModerationPlugin.class.getName()).warning("Writing watchlist.db did not finish in time!");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Closing watchlist.db failed!", ex);
+        }
+    }
+
+    private void execute(SqlTask task) {
+        try {
+            executor.execute(() -> run(task));
+        } catch (RejectedExecutionException ex) {
+            // store closed
+            writeFailed = true;
+        }
+    }
+
+    private void run(SqlTask task) {
+        try {
+            task.run();
+            connection.commit();
+        } catch (SQLException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Writing watchlist.db failed!", ex);
+            writeFailed = true;
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackEx) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Rollback of watchlist.db failed!", rollbackEx);
+            }
+        }
+    }
+
+    private static void setReason(PreparedStatement statement, long playerId, WatchlistReason reason) throws SQLException {
+        statement.setLong(1, reason.getStoreId());
+        statement.setLong(2, playerId);
+        statement.setLong(3, reason.getCreationTime().getTime());
+        statement.setString(4, reason.getDescription());
+        statement.setString(5, reason.getInitiator());
+        statement.setString(6, reason.getNameAtCreationTime());
+        statement.setBoolean(7, reason.isByModerator());
+    }
+
+    private static WatchlistReason readReason(ResultSet result, int column) throws SQLException {
+        WatchlistReason reason = new WatchlistReason(new Date(result.getLong(column + 1)), result.getString(column + 2),
+                                                     result.getString(column + 3), result.getString(column + 4),
+                                                     result.getBoolean(column + 5));
+        reason.setStoreId(result.getLong(column));
+        return reason;
+    }
+
+    /**
+     * 'unknown' IP addresses are stored as NULL.
+     */
+    private static String toColumn(String ip) {
+        return (ip == null || ip.equals("unknown") ? null : ip);
+    }
+
+    private interface SqlTask {
+        void run() throws SQLException;
+    }
+
+    private interface ParameterSetter {
+        void set(PreparedStatement statement) throws SQLException;
+    }
+
+    private static class EntryRow {
+
+        private final String name;
+        private final UUID uuid;
+        private final String ip;
+        private final boolean nameUnknown;
+        private final List<WatchlistReason> reasons;
+
+        private EntryRow(String name, UUID uuid, String ip, boolean nameUnknown, List<WatchlistReason> reasons) {
+            this.name = name;
+            this.uuid = uuid;
+            this.ip = ip;
+            this.nameUnknown = nameUnknown;
+            this.reasons = reasons;
+        }
+    }
+}
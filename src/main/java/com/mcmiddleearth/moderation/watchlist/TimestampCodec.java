@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.FormatStyle;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Conversion of watchlist timestamps. watchlist.yml stores ISO-8601 instants like '2020-09-01T18:37:21Z'. Files
+ * written by older versions contain the locale dependent form 'Sep 1, 2020, 6:37:21 PM' in the time zone of the
+ * server, which can still be read. The DateFormat.DEFAULT form of the default locale of the server is accepted too.
+ * <p>
+ * All formatters are immutable and thread-safe, so they are created once.
+ */
+
+public final class TimestampCodec {
+
+    /**
+     * Legacy DateFormat.DEFAULT form of Locale.US. Java 8 writes no comma after the year, newer versions do.
+     */
+    private static final DateTimeFormatter LEGACY_FORMAT = DateTimeFormatter.ofPattern("MMM d, yyyy[,] h:mm:ss a",
+                                                                                       Locale.US);
+
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT)
+                                                                             .withLocale(Locale.US)
+                                                                             .withZone(ZoneId.systemDefault());
+
+    private TimestampCodec() {
+    }
+
+    /**
+     * @param time timestamp
+     * @return ISO-8601 instant to store in watchlist.yml
+     */
+    public static String format(Date time) {
+        return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(time.getTime()));
+    }
+
+    /**
+     * Reads a timestamp from watchlist.yml.
+     * @param value ISO-8601 instant, epoch milliseconds, a YAML timestamp, the legacy format or the DateFormat.DEFAULT
+     *              form of the default locale
+     * @return the timestamp
+     * @throws ParseException if the value is not a timestamp
+     */
+    public static Date parse(Object value) throws ParseException {
+        if(value instanceof Date) {
+            // unquoted ISO timestamps are converted by SnakeYAML
+            return (Date) value;
+        }
+        if(value instanceof Number) {
+            return new Date(((Number) value).longValue());
+        }
+        if(value == null) {
+            throw new ParseException("Missing timestamp", 0);
+        }
+        String text = value.toString().trim();
+        try {
+            if(text.length() > 10 && text.charAt(4) == '-' && text.charAt(10) == 'T') {
+                return Date.from(Instant.parse(text));
+            }
+            // newer Java versions write a narrow no-break space before AM/PM
+            String legacy = text.replace('\u202f', ' ').replace('\u00a0', ' ');
+            return Date.from(LocalDateTime.parse(legacy, LEGACY_FORMAT).atZone(ZoneId.systemDefault()).toInstant());
+        } catch (DateTimeParseException ex) {
+            // other variants of Locale.US, then the form of the default locale as last resort
+            try {
+                return DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US).parse(text);
+            } catch (ParseException usEx) {
+                return DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT).parse(text);
+            }
+        }
+    }
+
+    /**
+     * @param time timestamp
+     * @return short date and time for display in chat
+     */
+    public static String display(Date time) {
+        return DISPLAY_FORMAT.format(Instant.ofEpochMilli(time.getTime()));
+    }
+}
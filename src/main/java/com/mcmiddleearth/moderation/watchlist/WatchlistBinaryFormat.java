@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compact binary file format for watchlist snapshots (watchlist.dat). Strings are length prefixed (modified UTF-8),
+ * timestamps are epoch milliseconds and UUIDs are stored as two longs.
+ * <pre>
+ * int magic, int format version, long journal sequence, int entry count
+ * per entry: name, uuid, boolean nameUnknown, ip, int reason count, long latest reason time,
+ *            int length of reason block, reason block
+ * per reason: long creation time, description, initiator, name at creation time, boolean byModerator
+ * </pre>
+ * The header of each entry contains the length of its reasons so readers can skip them and load them on first access.
+ */
+
+public class WatchlistBinaryFormat {
+
+    private static final int MAGIC = 0x4D43574C; // "MCWL"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final UUID unknownUuid = new UUID(0, 0);
+
+    /**
+     * Reads a binary watchlist snapshot. Only the entry headers are read, the reasons are loaded from the snapshot file
+     * on first access.
+     * @param snapshot file to read
+     * @param consumer receives all watchlist entries
+     * @return journal sequence stored in the snapshot
+     * @throws IOException if the file can't be read or is not a watchlist snapshot
+     */
+    public static long read(SnapshotFile snapshot, WatchlistStore.EntryConsumer consumer) throws IOException {
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(snapshot.file),
+                                                                                      1 << 16));
+        try (DataInputStream in = new DataInputStream(counter)) {
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Not a watchlist snapshot: " + snapshot.file.getName());
+            }
+            int version = in.readInt();
+            if(version != FORMAT_VERSION) {
+                throw new IOException("Unsupported watchlist snapshot version " + version + ": " + snapshot.file.getName());
+            }
+            long journalSequence = in.readLong();
+            int entryCount = in.readInt();
+            for(int i = 0; i < entryCount; i++) {
+                String name = in.readUTF();
+                consumer.accept(name, readEntry(in, counter, snapshot));
+            }
+            return journalSequence;
+        }
+    }
+
+    /**
+     * Writes a binary watchlist snapshot.
+     * @param file file to write
+     * @param journalSequence sequence number of the last journal record contained in the snapshot
+     * @param entries watchlist keys mapped to entries serialized with {@link #serialize(WatchlistEntry)}
+     * @return position of the reason blocks which were copied from the previous snapshot in the written file
+     * @throws IOException if writing fails
+     */
+    public static Map<ReasonBlock,Long> write(File file, long journalSequence, Map<String,EntryBytes> entries)
+            throws IOException {
+        Map<ReasonBlock,Long> copiedBlocks = new IdentityHashMap<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(journalSequence);
+            out.writeInt(entries.size());
+            for(Map.Entry<String,EntryBytes> entry: entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.write(entry.getValue().bytes);
+                ReasonBlock reasons = entry.getValue().reasons;
+                if(reasons != null) {
+                    copiedBlocks.put(reasons, (long) out.size());
+                    out.write(reasons.snapshot.readBlock(reasons));
+                }
+            }
+        }
+        return copiedBlocks;
+    }
+
+    /**
+     * @param entry watchlist entry
+     * @return binary form of the entry without its name. If the reasons of the entry were not loaded, they are not
+     *         included but copied from the previous snapshot when writing.
+     */
+    public static EntryBytes serialize(WatchlistEntry entry) {
+        try {
+            WatchlistPlayerData.ReasonLoader loader = entry.getReasonLoader();
+            if(loader instanceof ReasonBlock) {
+                ReasonBlock block = (ReasonBlock) loader;
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+                DataOutputStream out = new DataOutputStream(bytes);
+                writeHeader(out, entry, block.count, entry.getLatestReasonTime(), block.length);
+                out.flush();
+                return new EntryBytes(bytes.toByteArray(), block);
+            }
+            List<WatchlistReason> reasons = entry.getReasons();
+            ByteArrayOutputStream reasonBytes = new ByteArrayOutputStream(64 * reasons.size());
+            DataOutputStream reasonOut = new DataOutputStream(reasonBytes);
+            for(WatchlistReason reason: reasons) {
+                writeReason(reasonOut, reason);
+            }
+            reasonOut.flush();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + reasonBytes.size());
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeHeader(out, entry, reasons.size(), entry.getLatestReasonTime(), reasonBytes.size());
+            reasonBytes.writeTo(out);
+            out.flush();
+            return new EntryBytes(bytes.toByteArray(), null);
+        } catch (IOException ex) {
+            // can't happen with byte array streams
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, WatchlistEntry entry, int reasonCount,
+                                    long latestReasonTime, int reasonBlockLength) throws IOException {
+        writeUuid(out, entry.isUuidUnknown() ? unknownUuid : entry.getUuid());
+        out.writeBoolean(entry.isNameUnknown());
+        writeString(out, entry.getIp());
+        out.writeInt(reasonCount);
+        out.writeLong(latestReasonTime);
+        out.writeInt(reasonBlockLength);
+    }
+
+    private static WatchlistPlayerData readEntry(DataInputStream in, CountingInputStream counter, SnapshotFile snapshot)
+            throws IOException {
+        UUID uuid = readUuid(in);
+        boolean nameUnknown = in.readBoolean();
+        String ip = readString(in);
+        int reasonCount = in.readInt();
+        long latestReasonTime = in.readLong();
+        int reasonBlockLength = in.readInt();
+        ReasonBlock block = new ReasonBlock(snapshot, counter.position, reasonBlockLength, reasonCount);
+        long remaining = reasonBlockLength;
+        while(remaining > 0) {
+            long skipped = in.skip(remaining);
+            if(skipped <= 0) {
+                throw new EOFException("Truncated watchlist snapshot: " + snapshot.file.getName());
+            }
+            remaining -= skipped;
+        }
+        return new WatchlistPlayerData(uuid, ip, nameUnknown, reasonCount, latestReasonTime, block);
+    }
+
+    private static List<WatchlistReason> readReasons(byte[] block, int count) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+        List<WatchlistReason> reasons = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            reasons.add(readReason(in));
+        }
+        return reasons;
+    }
+
+    static void writeReason(DataOutputStream out, WatchlistReason reason) throws IOException {
+        out.writeLong(reason.getCreationTime().getTime());
+        writeString(out, reason.getDescription());
+        writeString(out, reason.getInitiator());
+        writeString(out, reason.getNameAtCreationTime());
+        out.writeBoolean(reason.isByModerator());
+    }
+
+    static WatchlistReason readReason(DataInputStream in) throws IOException {
+        Date creationTime = new Date(in.readLong());
+        String description = readString(in);
+        String initiator = readString(in);
+        String nameAtCreationTime = readString(in);
+        return new WatchlistReason(creationTime, description, initiator, nameAtCreationTime, in.readBoolean());
+    }
+
+    static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return (in.readBoolean() ? in.readUTF() : null);
+    }
+
+    /**
+     * Serialized watchlist entry. Contains either the whole entry or only the header, if the reasons are copied from
+     * a reason block of the previous snapshot.
+     */
+    public static final class EntryBytes {
+
+        private final byte[] bytes;
+        private final ReasonBlock reasons;
+
+        private EntryBytes(byte[] bytes, ReasonBlock reasons) {
+            this.bytes = bytes;
+            this.reasons = reasons;
+        }
+    }
+
+    /**
+     * Position of the reasons of a watchlist entry in a snapshot file. Loads the reasons on first access.
+     */
+    public static final class ReasonBlock implements WatchlistPlayerData.ReasonLoader {
+
+        private final SnapshotFile snapshot;
+
+        // guarded by snapshot
+        private long offset;
+
+        private final int length;
+        private final int count;
+
+        private ReasonBlock(SnapshotFile snapshot, long offset, int length, int count) {
+            this.snapshot = snapshot;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+        }
+
+        private volatile List<WatchlistReason> loaded;
+
+        @Override
+        public List<WatchlistReason> load() {
+            List<WatchlistReason> result = loaded;
+            if(result == null) {
+                try {
+                    result = Collections.unmodifiableList(readReasons(snapshot.readBlock(this), count));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Loading watchlist reasons from " + snapshot.file.getName() + " failed!", ex);
+                }
+                loaded = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Snapshot file from which reason blocks are loaded. The file is kept open for reading after the first access.
+     */
+    public static final class SnapshotFile {
+
+        private final File file;
+
+        private FileChannel channel;
+
+        public SnapshotFile(File file) {
+            this.file = file;
+        }
+
+        private synchronized byte[] readBlock(ReasonBlock block) throws IOException {
+            if(channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(block.length);
+            long position = block.offset;
+            while(buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if(read < 0) {
+                    throw new EOFException("Truncated watchlist snapshot: " + file.getName());
+                }
+                position += read;
+            }
+            return buffer.array();
+        }
+
+        /**
+         * Replaces the snapshot file with a new one. Reason blocks that were copied to the new file are pointed to
+         * their new position.
+         * @param replacement moves the new snapshot file into place
+         * @param copiedBlocks new positions returned by {@link #write(File, long, Map)}
+         * @throws IOException if replacing the file failed
+         */
+        public synchronized void replace(Replacement replacement, Map<ReasonBlock,Long> copiedBlocks) throws IOException {
+            close();
+            replacement.run();
+            copiedBlocks.forEach((block, offset) -> block.offset = offset);
+        }
+
+        public synchronized void close() {
+            if(channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                    // read only
+                }
+                channel = null;
+            }
+        }
+    }
+
+    public interface Replacement {
+        void run() throws IOException;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long position;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if(result >= 0) {
+                position++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int result = super.read(buffer, offset, length);
+            if(result > 0) {
+                position += result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(n);
+            position += result;
+            return result;
+        }
+    }
+}
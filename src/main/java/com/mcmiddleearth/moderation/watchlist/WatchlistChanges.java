@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import java.util.UUID;
+
+/**
+ * Modifications of single watchlist entries. Entries are identified by their watchlist key in any case. Implemented by
+ * the watchlist storages to update only the affected data and used to replay the journal.
+ */
+
+public interface WatchlistChanges {
+
+    /**
+     * Adds a reason to an entry. Creates the entry if it doesn't exist.
+     * @param name watchlist key of the entry
+     * @param uuid uuid of a new entry, may be null
+     * @param ip new IP address of the entry, null to keep the current one
+     * @param reason added reason
+     */
+    void addReason(String name, UUID uuid, String ip, WatchlistReason reason);
+
+    /**
+     * @param name watchlist key of the entry
+     * @param index index of the reason in the reason list of the entry
+     * @param reason removed reason, null when replaying the journal which stores the index only
+     */
+    void removeReason(String name, int index, WatchlistReason reason);
+
+    void removePlayer(String name);
+
+    void bindUuid(String name, UUID uuid);
+
+    /**
+     * Changes the key of an entry. An entry stored with the new key already is replaced.
+     */
+    void rename(String oldName, String newName, boolean nameUnknown);
+
+    /**
+     * Adds the reasons of the source entry to the target entry and removes the source entry.
+     */
+    void merge(String source, String target);
+}
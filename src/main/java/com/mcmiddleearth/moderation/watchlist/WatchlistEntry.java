@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import java.util.*;
+
+/**
+ * Immutable state of a watchlist entry in a {@link WatchlistSnapshot}.
+ */
+
+public final class WatchlistEntry {
+
+    private final String name;
+
+    private final UUID uuid;
+
+    private final String ip;
+
+    private final boolean nameUnknown;
+
+    private final int reasonCount;
+
+    private final long latestReasonTime;
+
+    /**
+     * Copy of the reasons or null if they were not loaded yet, then the reasonLoader provides them.
+     */
+    private volatile List<WatchlistReason> reasons;
+
+    private final WatchlistPlayerData.ReasonLoader reasonLoader;
+
+    /**
+     * Mutable entry this state was copied from and its version at that time.
+     */
+    private final WatchlistPlayerData data;
+    private final long dataVersion;
+
+    private WatchlistEntry(String name, WatchlistPlayerData data) {
+        this.name = name;
+        this.data = data;
+        this.dataVersion = data.getVersion();
+        this.uuid = data.getUuid();
+        this.ip = data.getIp();
+        this.nameUnknown = data.isNameUnknown();
+        this.reasonLoader = data.getReasonLoader();
+        if(reasonLoader == null) {
+            reasons = Collections.unmodifiableList(new ArrayList<>(data.getReasons()));
+            reasonCount = reasons.size();
+            latestReasonTime = data.getLatestReasonTime();
+        } else {
+            reasonCount = data.getReasonCount();
+            latestReasonTime = data.getLatestReasonTime();
+        }
+    }
+
+    /**
+     * Copies the current state of a watchlist entry. The entry must not be modified concurrently.
+     * @param name watchlist key of the entry
+     * @param data the entry
+     * @return immutable copy
+     */
+    static WatchlistEntry of(String name, WatchlistPlayerData data) {
+        return new WatchlistEntry(name, data);
+    }
+
+    /**
+     * @return true if this is still the state of the entry stored with the name
+     */
+    boolean isCurrent(String name, WatchlistPlayerData data) {
+        return this.data == data && dataVersion == data.getVersion() && this.name.equals(name);
+    }
+
+    /**
+     * @return watchlist key of the entry with original case
+     */
+    public String getName() {
+        return name;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public boolean isUuidUnknown() {
+        return uuid == null;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public boolean isNameUnknown() {
+        return nameUnknown;
+    }
+
+    public int getReasonCount() {
+        return reasonCount;
+    }
+
+    /**
+     * @return creation time of the latest reason in epoch milliseconds or 0 if there are no reasons
+     */
+    public long getLatestReasonTime() {
+        return latestReasonTime;
+    }
+
+    /**
+     * Reasons which were not loaded when this state was copied are loaded on first access.
+     * @return unmodifiable list of reasons
+     */
+    public List<WatchlistReason> getReasons() {
+        List<WatchlistReason> loaded = reasons;
+        if(loaded == null) {
+            loaded = Collections.unmodifiableList(new ArrayList<>(reasonLoader.load()));
+            reasons = loaded;
+        }
+        return loaded;
+    }
+
+    /**
+     * @return loader of the reasons if they were not loaded when this state was copied, otherwise null
+     */
+    WatchlistPlayerData.ReasonLoader getReasonLoader() {
+        return reasonLoader;
+    }
+
+    /**
+     * Required to save data to watchlist.yml
+     *
+     * @return Map of WatchlistEntry
+     */
+    public Map<String, Object> serialize() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("uuid", (uuid != null ? uuid : new UUID(0, 0)).toString());
+        List<Map<String, Object>> reasonData = new ArrayList<>();
+        getReasons().forEach(reason -> reasonData.add(reason.serialize()));
+        result.put("reasons", reasonData);
+        result.put("nameUnknown",nameUnknown);
+        result.put("ip",ip);
+        return result;
+    }
+}
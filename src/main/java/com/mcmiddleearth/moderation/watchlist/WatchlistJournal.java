@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of watchlist modifications. Each record has a sequence number. The watchlist snapshot stores the
+ * sequence number of the last record it contains, so at startup only newer records are replayed on top of it.
+ * <p>
+ * Before a new snapshot is written the journal is rotated: the current file is moved to a backup file and a new journal
+ * is started. The backup is deleted after the snapshot was written successfully.
+ * <p>
+ * A record that was not written completely, e.g. because the server crashed, is cut off when the journal is replayed,
+ * so records appended later don't end up behind it.
+ */
+
+public class WatchlistJournal implements WatchlistChanges {
+
+    private static final byte ADD_REASON = 1;
+    private static final byte REMOVE_REASON = 2;
+    private static final byte REMOVE_PLAYER = 3;
+    private static final byte BIND_UUID = 4;
+    private static final byte RENAME = 5;
+    private static final byte MERGE = 6;
+
+    /**
+     * Sequence number and record type.
+     */
+    private static final int MIN_RECORD_LENGTH = 9;
+
+    /**
+     * Upper bound for the length of a record. Names and reasons are much shorter, larger values come from corrupt data.
+     */
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private final File file;
+    private final File rotatedFile;
+
+    private DataOutputStream out;
+
+    private long sequence;
+
+    private long size;
+
+    private boolean broken;
+
+    public WatchlistJournal(File file) {
+        this.file = file;
+        this.rotatedFile = new File(file.getPath() + ".old");
+    }
+
+    /**
+     * Replays all records of the rotated and the current journal file that are newer than the snapshot. Incomplete or
+     * corrupt data at the end of a journal file is cut off, so call this before {@link #open()}.
+     * @param snapshotSequence sequence number of the last record included in the snapshot
+     * @param replayer receiver of the journal records
+     * @return number of replayed records
+     */
+    public int replay(long snapshotSequence, WatchlistChanges replayer) {
+        sequence = snapshotSequence;
+        return replay(rotatedFile, snapshotSequence, replayer) + replay(file, snapshotSequence, replayer);
+    }
+
+    private int replay(File journalFile, long snapshotSequence, WatchlistChanges replayer) {
+        if(!journalFile.exists()) {
+            return 0;
+        }
+        int count = 0;
+        long fileLength = journalFile.length();
+        // end of the last complete record
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while(validLength < fileLength) {
+                if(fileLength - validLength < 4) {
+                    throw new EOFException("Incomplete record length");
+                }
+                int length = in.readInt();
+                if(length < MIN_RECORD_LENGTH || length > MAX_RECORD_LENGTH) {
+                    throw new IOException("Invalid watchlist journal record length: " + length);
+                }
+                if(length > fileLength - validLength - 4) {
+                    throw new EOFException("Incomplete record");
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                long recordSequence = recordIn.readLong();
+                if(recordSequence > snapshotSequence) {
+                    replayRecord(recordIn, replayer);
+                    sequence = Math.max(sequence, recordSequence);
+                    count++;
+                }
+                validLength += 4 + length;
+            }
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Reading watchlist journal "
+                    + journalFile.getName() + " failed after " + count + " records. Cutting off "
+                    + (fileLength - validLength) + " bytes.", ex);
+            truncate(journalFile, validLength);
+        }
+        return count;
+    }
+
+    private static void replayRecord(DataInputStream recordIn, WatchlistChanges replayer) throws IOException {
+        byte type = recordIn.readByte();
+        switch(type) {
+            case ADD_REASON:
+                replayer.addReason(recordIn.readUTF(), readUuid(recordIn), WatchlistBinaryFormat.readString(recordIn),
+                                   WatchlistBinaryFormat.readReason(recordIn));
+                break;
+            case REMOVE_REASON:
+                replayer.removeReason(recordIn.readUTF(), recordIn.readInt(), null);
+                break;
+            case REMOVE_PLAYER:
+                replayer.removePlayer(recordIn.readUTF());
+                break;
+            case BIND_UUID:
+                replayer.bindUuid(recordIn.readUTF(), readUuid(recordIn));
+                break;
+            case RENAME:
+                replayer.rename(recordIn.readUTF(), recordIn.readUTF(), recordIn.readBoolean());
+                break;
+            case MERGE:
+                replayer.merge(recordIn.readUTF(), recordIn.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown watchlist journal record type: " + type);
+        }
+    }
+
+    /**
+     * Cuts off a journal file after its last complete record.
+     * @return false if the file could not be truncated
+     */
+    private static boolean truncate(File journalFile, long length) {
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+            if(channel.size() > length) {
+                channel.truncate(length);
+            }
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Truncating watchlist journal "
+                    + journalFile.getName() + " failed!", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Opens the journal for appending records.
+     */
+    public synchronized void open() {
+        try {
+            size = file.length();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            broken = false;
+        } catch (IOException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Opening watchlist journal failed!", ex);
+            broken = true;
+        }
+    }
+
+    public synchronized void close() {
+        if(out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Closing watchlist journal failed!", ex);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Moves the current journal to the backup file and starts a new journal. If a backup from a failed rotation exists
+     * already, the current journal is appended to it. Bytes of records that were not written completely are dropped.
+     * @return sequence number of the last record in the backup file
+     */
+    public synchronized long rotate() {
+        boolean reopen = (out != null || broken);
+        close();
+        if(reopen && file.length() > size && !truncate(file, size)) {
+            // records appended behind a torn record would be lost at replay
+            broken = true;
+            return sequence;
+        }
+        try {
+            if(file.exists()) {
+                if(rotatedFile.exists()) {
+                    appendRotated();
+                    Files.delete(file.toPath());
+                } else {
+                    Files.move(file.toPath(), rotatedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Rotating watchlist journal failed!", ex);
+        }
+        if(reopen) {
+            open();
+        }
+        return sequence;
+    }
+
+    private void appendRotated() throws IOException {
+        long rotatedLength = rotatedFile.length();
+        try {
+            Files.write(rotatedFile.toPath(), Files.readAllBytes(file.toPath()), StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            // remove what was appended, the current journal is appended again with the next rotation
+            truncate(rotatedFile, rotatedLength);
+            throw ex;
+        }
+    }
+
+    /**
+     * Deletes the rotated journal. Call after a snapshot containing all rotated records was written.
+     */
+    public synchronized void deleteRotated() {
+        if(rotatedFile.exists() && !rotatedFile.delete()) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Deleting rotated watchlist journal failed!");
+        }
+    }
+
+    /**
+     * Deletes both journal files. Only call if the journal is not open and the snapshot contains all records.
+     */
+    public synchronized void delete() {
+        deleteRotated();
+        if(file.exists() && !file.delete()) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Deleting watchlist journal failed!");
+        }
+    }
+
+    @Override
+    public void addReason(String name, UUID uuid, String ip, WatchlistReason reason) {
+        append(ADD_REASON, record -> {
+            record.writeUTF(name);
+            writeUuid(record, uuid);
+            WatchlistBinaryFormat.writeString(record, ip);
+            WatchlistBinaryFormat.writeReason(record, reason);
+        });
+    }
+
+    @Override
+    public void removeReason(String name, int index, WatchlistReason reason) {
+        append(REMOVE_REASON, record -> {
+            record.writeUTF(name);
+            record.writeInt(index);
+        });
+    }
+
+    @Override
+    public void removePlayer(String name) {
+        append(REMOVE_PLAYER, record -> record.writeUTF(name));
+    }
+
+    @Override
+    public void bindUuid(String name, UUID uuid) {
+        append(BIND_UUID, record -> {
+            record.writeUTF(name);
+            writeUuid(record, uuid);
+        });
+    }
+
+    @Override
+    public void rename(String oldName, String newName, boolean nameUnknown) {
+        append(RENAME, record -> {
+            record.writeUTF(oldName);
+            record.writeUTF(newName);
+            record.writeBoolean(nameUnknown);
+        });
+    }
+
+    @Override
+    public void merge(String source, String target) {
+        append(MERGE, record -> {
+            record.writeUTF(source);
+            record.writeUTF(target);
+        });
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream record) throws IOException;
+    }
+
+    private synchronized void append(byte type, RecordWriter writer) {
+        if(out == null || broken) {
+            // journal not in use or not writable
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeLong(sequence + 1);
+            record.writeByte(type);
+            writer.write(record);
+            record.flush();
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+            sequence++;
+            size += 4 + bytes.size();
+        } catch (IOException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Writing watchlist journal failed!", ex);
+            broken = true;
+        }
+    }
+
+    /**
+     * @return sequence number of the last record
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return size of the current journal file in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return true if the journal could not be written. Modifications need to be saved with a new snapshot then.
+     */
+    public synchronized boolean isBroken() {
+        return broken;
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeBoolean(uuid != null);
+        if(uuid != null) {
+            WatchlistBinaryFormat.writeUuid(out, uuid);
+        }
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return (in.readBoolean() ? WatchlistBinaryFormat.readUuid(in) : null);
+    }
+}
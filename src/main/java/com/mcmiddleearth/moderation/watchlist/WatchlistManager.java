@@ -16,9 +16,9 @@
  */
 package com.mcmiddleearth.moderation.watchlist;
 
+import com.google.common.util.concurrent.Striped;
 import com.mcmiddleearth.moderation.ModerationPlugin;
 import com.mcmiddleearth.moderation.Permission;
-import com.mcmiddleearth.moderation.configuration.YamlBridge;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
@@ -27,8 +27,15 @@ import java.io.File;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.sql.SQLException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * @author Eriol_Eandur
@@ -36,20 +43,143 @@ import java.util.stream.Collectors;
 
 public class WatchlistManager {
 
-    private final Map<String,WatchlistPlayerData> watchlist = new HashMap<>();
+    private final Map<String,WatchlistPlayerData> watchlist = new ConcurrentHashMap<>();
 
-    private final File dataFile = new File(ModerationPlugin.getInstance().getDataFolder(),"watchlist.yml");
+    /**
+     * Players connected to the proxy and the subset of them that is on the watchlist, by lower case name. Updated
+     * while holding the lock of the player name, so they are consistent with watchlist modifications.
+     */
+    private final Map<String,ProxiedPlayer> onlinePlayers = new ConcurrentHashMap<>();
+    private final Map<String,ProxiedPlayer> onlineWatchedPlayers = new ConcurrentHashMap<>();
+
+    /**
+     * Trigrams of the lower case names of all watchlist entries for substring searches.
+     */
+    private final NameTrigramIndex watchlistTrigrams = new NameTrigramIndex();
+
+    /**
+     * Names of online, recently seen and watched players for tab completion.
+     */
+    private final PlayerNameIndex playerNames = new PlayerNameIndex();
+
+    /**
+     * All players who ever joined, saved in knownplayers.dat.
+     */
+    private final KnownPlayerDirectory knownPlayers;
+
+    /**
+     * Lower case player names mapped to the key with original case used in watchlist map.
+     */
+    private final Map<String,String> watchlistNames = new ConcurrentHashMap<>();
 
-    private final Map<String,UUID> knownPlayers = new HashMap<>();
+    /**
+     * Watchlist entries with known uuid by uuid and the current watchlist key of each entry. WatchlistPlayerData
+     * doesn't override equals, so entries are compared by identity.
+     */
+    private final Map<UUID,Set<WatchlistPlayerData>> watchlistUuids = new ConcurrentHashMap<>();
+    private final Map<WatchlistPlayerData,String> watchlistKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Watchlist entries with known IP by packed IP address for alt detection.
+     */
+    private final Map<IpAddress,Set<WatchlistPlayerData>> watchlistIps = new ConcurrentHashMap<>();
+
+    /**
+     * Locks for modifications of the watchlist entry with a name, by lower case name. So
+     * modifications of different players don't block each other.
+     */
+    private final Striped<Lock> playerLocks = Striped.lock(64);
+
+    /**
+     * Immutable view of the watchlist, replaced after each modification. Readers and the store use it without locking.
+     */
+    private final AtomicReference<WatchlistSnapshot> snapshot = new AtomicReference<>();
 
     /**
-     * Constructor loads data from watchlist.yml
+     * Serializes reporting modifications to the store and publishing the snapshot containing them, so the order of
+     * reported changes matches the snapshot versions. Held only for a short time after a modification is done.
+     */
+    private final Object commitLock = new Object();
+
+    private final WatchlistStore store;
+
+    /**
+     * Set during loading if entries with names that differ only in case were merged.
+     */
+    private boolean mergedAtLoad = false;
+
+    /**
+     * Constructor loads data from the storage configured by watchlist.storage.format.
      */
     public WatchlistManager() {
-        if(dataFile.exists()) {
-            YamlBridge yaml = new YamlBridge();
-            yaml.load(dataFile);
-            yaml.getMap().forEach((name, data) -> watchlist.put(name, new WatchlistPlayerData((Map<String, Object>) data)));
+        this(createStore(), new File(ModerationPlugin.getInstance().getDataFolder(), "knownplayers.dat"),
+             ModerationPlugin.getConfig().getKnownPlayersCacheSize());
+        // players connected before a reload of the plugin
+        ProxyServer.getInstance().getPlayers().forEach(this::addOnlinePlayer);
+    }
+
+    /**
+     * @param store storage of the watchlist, loaded by this constructor
+     * @param knownPlayersFile file of the known player directory
+     * @param knownPlayersCacheSize number of recently seen players kept in memory
+     */
+    WatchlistManager(WatchlistStore store, File knownPlayersFile, int knownPlayersCacheSize) {
+        knownPlayers = new KnownPlayerDirectory(knownPlayersFile, knownPlayersCacheSize,
+                new KnownPlayerDirectory.HotSetListener() {
+                    @Override
+                    public void added(String name) {
+                        playerNames.add(name, PlayerNameIndex.KNOWN);
+                    }
+
+                    @Override
+                    public void removed(String name) {
+                        playerNames.remove(name, PlayerNameIndex.KNOWN);
+                    }
+                });
+        this.store = store;
+        store.load(this::loadEntry, new JournalReplayer());
+        synchronized(commitLock) {
+            snapshot.set(WatchlistSnapshot.of(watchlist));
+            snapshot.get().getEntries().forEach(entry -> {
+                playerNames.add(entry.getName(), PlayerNameIndex.WATCHLIST);
+                watchlistTrigrams.add(entry.getName().toLowerCase());
+            });
+            if(mergedAtLoad) {
+                store.saveAll(snapshot.get());
+            } else {
+                store.commit(snapshot.get());
+            }
+        }
+    }
+
+    private static WatchlistStore createStore() {
+        if(ModerationPlugin.getConfig().getWatchlistStorageFormat().equalsIgnoreCase("sql")) {
+            try {
+                return new SqlWatchlistStore();
+            } catch (SQLException ex) {
+                Logger.getLogger(ModerationPlugin.class.getName()).log(Level.SEVERE,
+                        "Opening watchlist.db failed! Using watchlist.yml instead.", ex);
+            }
+        }
+        return new FileWatchlistStore();
+    }
+
+    private void loadEntry(String name, WatchlistPlayerData playerData) {
+        WatchlistPlayerData duplicate = getWatchlistData(name);
+        if(duplicate == null) {
+            putWatchlist(name, playerData);
+        } else {
+            mergedAtLoad = true;
+            if(!duplicate.isUuidUnknown() && !playerData.isUuidUnknown()
+                        && !duplicate.getUuid().equals(playerData.getUuid())) {
+                // same name in different case but another player
+                List<Lock> heldLocks = new ArrayList<>();
+                putWithUnknownName(playerData, heldLocks);
+                unlock(heldLocks);
+            } else {
+                setWatchlistUuid(duplicate, playerData.getUuid());
+                duplicate.addReasons(playerData.getReasons());
+            }
         }
     }
 
@@ -63,12 +193,26 @@ public class WatchlistManager {
      * @return if player is on watchlist
      */
     public boolean isOnWatchlist(String name) {
-        return watchlist.keySet().stream().anyMatch(key -> key.equalsIgnoreCase(name));
+        return snapshot.get().contains(name);
+    }
+
+    /**
+     * Checks without modifying the watchlist if a joining player is watched, by name or by uuid after a name change.
+     * An entry with the name of the player but the uuid of another player doesn't count.
+     * @param player joining player
+     * @return true if the player is on the watchlist
+     */
+    public boolean isWatched(ProxiedPlayer player) {
+        WatchlistPlayerData nameMatch = getWatchlistData(player.getName());
+        if(nameMatch != null && (nameMatch.isUuidUnknown() || nameMatch.getUuid().equals(player.getUniqueId()))) {
+            return true;
+        }
+        return watchlistUuids.containsKey(player.getUniqueId());
     }
 
     public boolean hasWatchedIp(ProxiedPlayer player) {
-        return watchlist.values().stream().anyMatch(playerData -> !playerData.getIp().equals("unknown")
-                                                                   && playerData.getIp().equals(getIp(player.getUniqueId())));
+        IpAddress ip = IpAddress.of(player);
+        return ip != null && watchlistIps.containsKey(ip);
     }
 
     /**
@@ -80,89 +224,512 @@ public class WatchlistManager {
     }
 
     /**
-     * Saves the watchlist to watchlist.yml. Should be called each time the watchlist is modified.
+     * Get a consistent view of the whole watchlist without locking. The snapshot doesn't change, modifications are
+     * published with a new snapshot.
+     * @return latest published snapshot
+     */
+    public WatchlistSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @param substring part of a player name in any case
+     * @return entries of the latest snapshot whose name contains the substring, sorted by lower case name
+     */
+    public List<WatchlistEntry> searchWatchlist(String substring) {
+        WatchlistSnapshot current = snapshot.get();
+        String lowerSubstring = substring.toLowerCase();
+        if(lowerSubstring.length() < 3) {
+            // too short for trigrams, the sorted list needs no sorting afterwards
+            List<WatchlistEntry> result = new ArrayList<>();
+            for(WatchlistEntry entry: current.getSortedEntries()) {
+                if(entry.getName().toLowerCase().contains(lowerSubstring)) {
+                    result.add(entry);
+                }
+            }
+            return result;
+        }
+        List<String> names = new ArrayList<>();
+        for(String name: watchlistTrigrams.getCandidates(lowerSubstring)) {
+            if(name.contains(lowerSubstring) && current.contains(name)) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+        List<WatchlistEntry> result = new ArrayList<>(names.size());
+        names.forEach(name -> result.add(current.get(name)));
+        return result;
+    }
+
+    /**
+     * @return version of the latest published snapshot, increased with each modification of the watchlist
+     */
+    public long getSnapshotVersion() {
+        return snapshot.get().getVersion();
+    }
+
+    /**
+     * Saves all pending modifications and waits until they are written.
      */
     public void saveToFile() {
-        YamlBridge yaml = new YamlBridge();
-        watchlist.forEach(((name, watchlistPlayerData) -> yaml.set(name,watchlistPlayerData.serialize())));
-        yaml.save(dataFile);
+        store.flush();
+    }
+
+    /**
+     * Saves all pending modifications and closes the storage. Call when the plugin is disabled.
+     */
+    public void shutdown() {
+        store.close();
+        knownPlayers.close();
+    }
+
+    /**
+     * @param initiator name of a player, case insensitive
+     * @return all watchlist reasons created by the initiator with the watchlist key of their entry, oldest first
+     */
+    public List<Map.Entry<String,WatchlistReason>> getReasonsByInitiator(String initiator) {
+        return store.findByInitiator(initiator);
+    }
+
+    /**
+     * @param since earliest creation time
+     * @return all watchlist reasons created since the given time with the watchlist key of their entry, oldest first
+     */
+    public List<Map.Entry<String,WatchlistReason>> getReasonsSince(Date since) {
+        return store.findSince(since);
+    }
+
+    /**
+     * Runs a modification while holding the locks of all involved players. The involved players are determined before
+     * locking, so the modification checks if they are still the same and is retried otherwise. Changes are reported
+     * to the store and published with a new snapshot before the locks are released.
+     * @param names supplies the names of all players whose watchlist entries will be modified
+     * @param modification modification of the watchlist
+     */
+    private void modify(Supplier<Collection<String>> names, Modification modification) {
+        boolean done;
+        do {
+            ModificationContext context = new ModificationContext();
+            names.get().stream().filter(Objects::nonNull).forEach(name -> context.locked.add(name.toLowerCase()));
+            try {
+                for(Lock lock: playerLocks.bulkGet(new ArrayList<>(context.locked))) {
+                    lock.lock();
+                    context.heldLocks.add(lock);
+                }
+                done = modification.run(context);
+                if(done) {
+                    publish(context);
+                }
+            } finally {
+                unlock(context.heldLocks);
+            }
+        } while(!done);
+    }
+
+    /**
+     * Copies the entries of all locked players into a new snapshot. Entries of other players are shared with the
+     * previous snapshot, they can't change as long as the locks are held.
+     */
+    private void publish(ModificationContext context) {
+        WatchlistSnapshot current = snapshot.get();
+        Map<String,WatchlistEntry> changedEntries = new HashMap<>();
+        for(String name: context.locked) {
+            String key = watchlistNames.get(name);
+            WatchlistPlayerData data = (key != null ? watchlist.get(key) : null);
+            WatchlistEntry entry = current.get(name);
+            if(data == null) {
+                if(entry != null) {
+                    changedEntries.put(name, null);
+                }
+            } else if(entry == null || !entry.isCurrent(key, data)) {
+                changedEntries.put(name, WatchlistEntry.of(key, data));
+            }
+        }
+        if(changedEntries.isEmpty() && context.changes.isEmpty()) {
+            return;
+        }
+        synchronized(commitLock) {
+            context.changes.forEach(change -> change.accept(store));
+            // searches check the trigram candidates against the snapshot, so names are indexed before they are
+            // published and removed afterwards
+            changedEntries.forEach((name, entry) -> {
+                if(entry != null) {
+                    watchlistTrigrams.add(name);
+                }
+            });
+            WatchlistSnapshot published = snapshot.get().with(changedEntries);
+            snapshot.set(published);
+            changedEntries.forEach((name, entry) -> {
+                if(entry != null) {
+                    playerNames.add(entry.getName(), PlayerNameIndex.WATCHLIST);
+                    ProxiedPlayer player = onlinePlayers.get(name);
+                    if(player != null) {
+                        onlineWatchedPlayers.put(name, player);
+                    }
+                } else {
+                    playerNames.remove(name, PlayerNameIndex.WATCHLIST);
+                    watchlistTrigrams.remove(name);
+                    onlineWatchedPlayers.remove(name);
+                }
+            });
+            store.commit(published);
+        }
+    }
+
+    private interface Modification {
+
+        /**
+         * @param context locks held by the modification and receiver of the changes to save
+         * @return false if the modification involves players that are not locked, it is retried then
+         */
+        boolean run(ModificationContext context);
+    }
+
+    /**
+     * Collects the changes of a modification, they are reported to the store when the modification is published.
+     */
+    private static class ModificationContext implements WatchlistChanges {
+
+        /**
+         * Lower case names of the players whose locks are held. Names locked during the modification need to be added.
+         */
+        private final Set<String> locked = new HashSet<>();
+
+        /**
+         * Held locks, locks acquired during the modification need to be added.
+         */
+        private final List<Lock> heldLocks = new ArrayList<>();
+
+        private final List<Consumer<WatchlistChanges>> changes = new ArrayList<>();
+
+        @Override
+        public void addReason(String name, UUID uuid, String ip, WatchlistReason reason) {
+            changes.add(store -> store.addReason(name, uuid, ip, reason));
+        }
+
+        @Override
+        public void removeReason(String name, int index, WatchlistReason reason) {
+            changes.add(store -> store.removeReason(name, index, reason));
+        }
+
+        @Override
+        public void removePlayer(String name) {
+            changes.add(store -> store.removePlayer(name));
+        }
+
+        @Override
+        public void bindUuid(String name, UUID uuid) {
+            changes.add(store -> store.bindUuid(name, uuid));
+        }
+
+        @Override
+        public void rename(String oldName, String newName, boolean nameUnknown) {
+            changes.add(store -> store.rename(oldName, newName, nameUnknown));
+        }
+
+        @Override
+        public void merge(String source, String target) {
+            changes.add(store -> store.merge(source, target));
+        }
+    }
+
+    private static void unlock(List<Lock> locks) {
+        for(int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
     }
 
     public void updateWatchlist(ProxiedPlayer player) {
-        WatchlistPlayerData nameMatch = getWatchlistData(player.getName());
-        if(nameMatch!=null) {
+        modify(() -> {
+            List<String> names = new ArrayList<>();
+            names.add(player.getName());
+            getUuidMatches(player.getUniqueId()).forEach(match -> names.add(getName(match)));
+            return names;
+        }, context -> {
+            List<WatchlistPlayerData> uuidMatches = getUuidMatches(player.getUniqueId());
+            for(WatchlistPlayerData match: uuidMatches) {
+                String matchKey = getName(match);
+                if(matchKey == null || !context.locked.contains(matchKey.toLowerCase())) {
+                    return false;
+                }
+            }
+            WatchlistPlayerData nameMatch = getWatchlistData(player.getName());
+            if(nameMatch!=null) {
+
+                // Set uuid for watchlist entries that were made without the player being online
+                if (nameMatch.isUuidUnknown()) {
+                    setWatchlistUuid(nameMatch, player.getUniqueId());
+                    context.bindUuid(watchlistKeys.get(nameMatch), player.getUniqueId());
+                    uuidMatches.add(nameMatch);
+
+                    // Set name to 'unknown##' for watchlist entries when a player with same name but other uuid joins
+                } else if (!nameMatch.getUuid().equals(player.getUniqueId())) {
+                    String nameMatchKey = watchlistKeys.get(nameMatch);
+                    removeFromWatchlist(player.getName());
+                    String unknownName = putWithUnknownName(nameMatch, context.heldLocks);
+                    context.locked.add(unknownName.toLowerCase());
+                    context.rename(nameMatchKey, unknownName, true);
+                }
+            }
+
+            //get a list of watchlist entries with same uuid as joining player
+            if(!uuidMatches.isEmpty()) {
+                // prefer the entry which already has the current player name
+                WatchlistPlayerData firstMatch = (uuidMatches.contains(nameMatch) ? nameMatch : uuidMatches.get(0));
+                uuidMatches.remove(firstMatch);
+
+                // Set name for watchlist entry after player changed minecraft username
+                String firstKey = watchlistKeys.get(firstMatch);
+                if(!firstKey.equalsIgnoreCase(player.getName())) {
+                    removeFromWatchlist(firstKey);
+                    firstMatch.setNameUnknown(false);
+                    putWatchlist(player.getName(),firstMatch);
+                    context.rename(firstKey, player.getName(), false);
+                    firstKey = player.getName();
+                }
+
+                //merge entries with same uuid
+                for (WatchlistPlayerData match : uuidMatches) {
+                    String matchKey = watchlistKeys.get(match);
+                    removeFromWatchlist(matchKey);
+                    firstMatch.addReasons(match.getReasons());
+                    context.merge(matchKey, firstKey);
+                }
+            }
+            return true;
+        });
+    }
 
-            // Set uuid for watchlist entries that were made without the player being online
-            if (nameMatch.isUuidUnknown()) {
-                nameMatch.setUuid(player.getUniqueId());
+    private List<WatchlistPlayerData> getUuidMatches(UUID uuid) {
+        Set<WatchlistPlayerData> uuidMatches = watchlistUuids.get(uuid);
+        return (uuidMatches != null ? new ArrayList<>(uuidMatches) : new ArrayList<>());
+    }
 
-                // Set name to 'unknown##' for watchlist entries when a player with same name but other uuid joins
-            } else if (!nameMatch.getUuid().equals(player.getUniqueId())) {
-                watchlist.remove(player.getName());
-                putWithUnknownName(nameMatch);
+    /**
+     * Stores an entry with the first free name unknownName#. The lock of that name is acquired without waiting, to
+     * not deadlock with modifications holding other locks, and added to the held locks.
+     * @return the name of the entry
+     */
+    private String putWithUnknownName(WatchlistPlayerData data, List<Lock> heldLocks) {
+        for(int i = 0; ; i++) {
+            String name = "unknownName" + i;
+            Lock lock = playerLocks.get(name.toLowerCase());
+            if(lock.tryLock()) {
+                if(!watchlistNames.containsKey(name.toLowerCase())) {
+                    heldLocks.add(lock);
+                    data.setNameUnknown(true);
+                    putWatchlist(name, data);
+                    return name;
+                }
+                lock.unlock();
             }
         }
+    }
 
-        //get a list of watchlist entries with same uuid as joining player
-        List<Map.Entry<String,WatchlistPlayerData>> uuidMatches = watchlist.entrySet().stream()
-                     .filter(entry -> !entry.getValue().isUuidUnknown() && entry.getValue().getUuid().equals(player.getUniqueId()))
-                     .collect(Collectors.toList());
-        if(uuidMatches.size()>0) {
-            Map.Entry<String,WatchlistPlayerData> firstMatch = uuidMatches.get(0);
+    /**
+     * All changes of watchlist keys need to go through this method and removeFromWatchlist to keep the name and uuid
+     * indices in sync.
+     */
+    private void putWatchlist(String name, WatchlistPlayerData data) {
+        removeFromWatchlist(name);
+        watchlistNames.put(name.toLowerCase(), name);
+        watchlist.put(name, data);
+        watchlistKeys.put(data, name);
+        if(!data.isUuidUnknown()) {
+            addToIndex(watchlistUuids, data.getUuid(), data);
+        }
+        addIpIndex(data);
+    }
 
-            // Set name for watchlist entry after player changed minecraft username
-            if(!firstMatch.getKey().equalsIgnoreCase(player.getName())) {
-                watchlist.remove(firstMatch.getKey());
-                firstMatch.getValue().setNameUnknown(false);
-                watchlist.put(player.getName(),firstMatch.getValue());
+    private WatchlistPlayerData removeFromWatchlist(String name) {
+        String key = watchlistNames.remove(name.toLowerCase());
+        if(key == null) {
+            return null;
+        }
+        WatchlistPlayerData data = watchlist.remove(key);
+        if(data != null) {
+                watchlistKeys.remove(data);
+            if(!data.isUuidUnknown()) {
+                removeFromIndex(watchlistUuids, data.getUuid(), data);
             }
+            removeIpIndex(data);
+        }
+        return data;
+    }
 
-            //merge entries with same uuid
-            for(int i = 1; i< uuidMatches.size(); i++) {
-                watchlist.remove(uuidMatches.get(i).getKey());
-                firstMatch.getValue().getReasons().addAll(uuidMatches.get(i).getValue().getReasons());
+    private void setWatchlistUuid(WatchlistPlayerData data, UUID uuid) {
+        if(data.isUuidUnknown() && uuid != null) {
+            data.setUuid(uuid);
+            if(watchlistKeys.containsKey(data)) {
+                addToIndex(watchlistUuids, uuid, data);
             }
-            firstMatch.getValue().getReasons().sort(Comparator.comparing(WatchlistReason::getCreationTime));
         }
-        saveToFile();
     }
 
-    private void putWithUnknownName(WatchlistPlayerData data) {
-        int i = 0;
-        while(watchlist.containsKey("unknownName"+i)) {
-            i++;
+    private void setWatchlistIp(WatchlistPlayerData data, String ip) {
+        if(ip != null && !ip.equals(data.getIp())) {
+            boolean indexed = watchlistKeys.containsKey(data);
+            if(indexed) {
+                removeIpIndex(data);
+            }
+            data.setIp(ip);
+            if(indexed) {
+                addIpIndex(data);
+            }
+        }
+    }
+
+    private void addIpIndex(WatchlistPlayerData data) {
+        IpAddress ip = IpAddress.parse(data.getIp());
+        if(ip != null) {
+            addToIndex(watchlistIps, ip, data);
+        }
+    }
+
+    private void removeIpIndex(WatchlistPlayerData data) {
+        IpAddress ip = IpAddress.parse(data.getIp());
+        if(ip != null) {
+            removeFromIndex(watchlistIps, ip, data);
         }
-        data.setNameUnknown(true);
-        watchlist.put("unknownName"+i,data);
+    }
+
+    /**
+     * Index sets are replaced atomically instead of being modified, so readers can iterate them without locking.
+     * Entries with the same uuid or IP of different players are modified in parallel.
+     */
+    private static <K> void addToIndex(Map<K,Set<WatchlistPlayerData>> index, K key, WatchlistPlayerData data) {
+        index.compute(key, (k, entries) -> {
+            Set<WatchlistPlayerData> result = (entries != null ? new LinkedHashSet<>(entries) : new LinkedHashSet<>());
+            result.add(data);
+            return Collections.unmodifiableSet(result);
+        });
+    }
+
+    private static <K> void removeFromIndex(Map<K,Set<WatchlistPlayerData>> index, K key, WatchlistPlayerData data) {
+        index.computeIfPresent(key, (k, entries) -> {
+            if(!entries.contains(data)) {
+                return entries;
+            }
+            Set<WatchlistPlayerData> result = new LinkedHashSet<>(entries);
+            result.remove(data);
+            return (result.isEmpty() ? null : Collections.unmodifiableSet(result));
+        });
     }
 
     public Map<String, WatchlistPlayerData> getWatchlist() {
-        return watchlist;
+        return Collections.unmodifiableMap(watchlist);
+    }
+
+    /**
+     * Get the watchlist key of a player with original case.
+     * @param player name of the player in any case
+     * @return key of the player in the watchlist or null if not on watchlist
+     */
+    public String getWatchlistName(String player) {
+        return (player != null ? watchlistNames.get(player.toLowerCase()) : null);
     }
 
     public WatchlistPlayerData getWatchlistData(String player) {
-        return watchlist.entrySet().stream().filter(entry -> entry.getKey().equalsIgnoreCase(player))
-                                            .map(Map.Entry::getValue).findFirst().orElse(null);
+        String key = getWatchlistName(player);
+        return (key != null ? watchlist.get(key) : null);
     }
 
     public void addKnownPlayer(ProxiedPlayer player) {
-        knownPlayers.put(player.getName(),player.getUniqueId());
-//for(String name: knownPlayers.keySet()) {
-//    Logger.getGlobal().info("Known: "+name+" "+knownPlayers.get(name));
-//}
+        knownPlayers.seen(player.getName(), player.getUniqueId(), System.currentTimeMillis());
+    }
+
+    /**
+     * Call when a player logged in to the proxy.
+     */
+    public void addOnlinePlayer(ProxiedPlayer player) {
+        String name = player.getName().toLowerCase();
+        Lock lock = playerLocks.get(name);
+        lock.lock();
+        try {
+            onlinePlayers.put(name, player);
+            if(snapshot.get().contains(name)) {
+                onlineWatchedPlayers.put(name, player);
+            }
+        } finally {
+            lock.unlock();
+        }
+        playerNames.add(player.getName(), PlayerNameIndex.ONLINE);
+    }
+
+    /**
+     * Call when a player leaves the proxy.
+     */
+    public void removeOnlinePlayer(ProxiedPlayer player) {
+        String name = player.getName().toLowerCase();
+        Lock lock = playerLocks.get(name);
+        lock.lock();
+        try {
+            // a player with the same name might have logged in already
+            onlinePlayers.remove(name, player);
+            onlineWatchedPlayers.remove(name, player);
+        } finally {
+            lock.unlock();
+        }
+        if(!onlinePlayers.containsKey(name)) {
+            playerNames.remove(player.getName(), PlayerNameIndex.ONLINE);
+        }
+    }
+
+    /**
+     * @return online players who are on the watchlist
+     */
+    public Collection<ProxiedPlayer> getOnlineWatchedPlayers() {
+        return Collections.unmodifiableCollection(onlineWatchedPlayers.values());
+    }
+
+    /**
+     * @return number of online players who are on the watchlist
+     */
+    public int getOnlineWatchedCount() {
+        return onlineWatchedPlayers.size();
+    }
+
+    /**
+     * @return index of online, recently seen and watched player names for tab completion
+     */
+    public PlayerNameIndex getPlayerNames() {
+        return playerNames;
     }
 
     public boolean isKnown(String name) {
-        return knownPlayers.keySet().stream().anyMatch(key -> key.equalsIgnoreCase(name));
+        return knownPlayers.get(name) != null;
     }
 
-    public Map<String, UUID> getKnownPlayers() {
-        return knownPlayers;
+    /**
+     * Only the recently seen players are kept in memory. Use {@link #isKnown(String)}, {@link #getUUID(String)} or
+     * {@link #getKnownName(UUID)} to look up any player who ever joined.
+     * @return recently seen players by name, bounded by watchlist.knownPlayers.cacheSize
+     */
+    public Map<String, UUID> getRecentPlayers() {
+        return knownPlayers.getRecentPlayers();
     }
 
     public UUID getUUID(String name) {
-        return knownPlayers.entrySet().stream().filter(entry -> entry.getKey().equalsIgnoreCase(name))
-                                               .map(Map.Entry::getValue).findFirst().orElse(null);
+        KnownPlayerDirectory.KnownPlayer player = knownPlayers.get(name);
+        return (player != null ? player.getUuid() : null);
+    }
+
+    /**
+     * @param name player name in any case
+     * @return time the player last joined in epoch milliseconds or 0 if unknown
+     */
+    public long getLastSeen(String name) {
+        KnownPlayerDirectory.KnownPlayer player = knownPlayers.get(name);
+        return (player != null ? player.getLastSeen() : 0);
+    }
+
+    /**
+     * @param uuid uuid of a player
+     * @return name the player last joined with or null if unknown
+     */
+    public String getKnownName(UUID uuid) {
+        KnownPlayerDirectory.KnownPlayer player = knownPlayers.get(uuid);
+        return (player != null ? player.getName() : null);
     }
 
     public String getIp(UUID uuid) {
@@ -183,44 +750,135 @@ public class WatchlistManager {
         String initiator = (commandSender!=null?commandSender.getName():"plugin");
         boolean byModerator = commandSender == null || commandSender.hasPermission(Permission.ADD_WATCHLIST);
         WatchlistReason watchlistReason = new WatchlistReason(new Date(),reason,initiator,addPlayer,byModerator);
-        WatchlistPlayerData data = watchlist.get(addPlayer);
         UUID uuid = getUUID(addPlayer);
         String ip = getIp(uuid);
-        if(data != null) {
-            data.addReason(watchlistReason);
-            data.setIp(ip);
-        } else {
-            data = new WatchlistPlayerData(uuid,ip,watchlistReason);
-            watchlist.put(addPlayer,data);
-        }
-        saveToFile();
+        modify(() -> Collections.singleton(addPlayer), context -> {
+            WatchlistPlayerData data = getWatchlistData(addPlayer);
+            if(data != null) {
+                data.addReason(watchlistReason);
+                setWatchlistIp(data, ip);
+                context.addReason(watchlistKeys.get(data), uuid, ip, watchlistReason);
+            } else {
+                data = new WatchlistPlayerData(uuid,ip,watchlistReason);
+                putWatchlist(addPlayer,data);
+                context.addReason(addPlayer, uuid, ip, watchlistReason);
+            }
+            return true;
+        });
     }
 
     public void removeWatchlist(String removePlayer) {
         //WatchlistPlayerData playerData = watchlist.get(removePlayer);
-        watchlist.remove(removePlayer);
-        getWatchedAliases(removePlayer).forEach(alias -> watchlist.remove(getName(alias)));
-        saveToFile();
+        modify(() -> {
+            List<String> names = new ArrayList<>();
+            names.add(removePlayer);
+            getWatchedAliases(removePlayer).forEach(alias -> names.add(getName(alias)));
+            return names;
+        }, context -> {
+            Collection<WatchlistPlayerData> aliases = getWatchedAliases(removePlayer);
+            for(WatchlistPlayerData alias: aliases) {
+                String aliasName = getName(alias);
+                if(aliasName != null && !context.locked.contains(aliasName.toLowerCase())) {
+                    return false;
+                }
+            }
+            if(removeFromWatchlist(removePlayer) != null) {
+                context.removePlayer(removePlayer);
+            }
+            aliases.forEach(alias -> {
+                String aliasName = getName(alias);
+                if(aliasName != null) {
+                    removeFromWatchlist(aliasName);
+                    context.removePlayer(aliasName);
+                }
+            });
+            return true;
+        });
     }
 
     public void removeWatchlistReason(String player, int i) {
-        WatchlistPlayerData data = watchlist.get(player);
-        data.getReasons().remove(i);
+        modify(() -> Collections.singleton(player), context -> {
+            WatchlistPlayerData data = getWatchlistData(player);
+            if(data != null && i < data.getReasonCount()) {
+                WatchlistReason removed = data.removeReason(i);
+                context.removeReason(watchlistKeys.get(data), i, removed);
+            }
+            return true;
+        });
     }
 
     public Collection<WatchlistPlayerData> getWatchedAliases(String playerName) {
         //WatchlistPlayerData playerData = watchlist.get(player);
-        ProxiedPlayer player = ProxyServer.getInstance().getPlayer(playerName);
-        if(player!=null) {
-            return watchlist.values().stream().filter(watchlistPlayerData -> !watchlistPlayerData.getIp().equals("unknown")
-                            && watchlistPlayerData.getIp().equals(getIp(player.getUniqueId())))
-                    .collect(Collectors.toList());
+        IpAddress ip = IpAddress.of(ProxyServer.getInstance().getPlayer(playerName));
+        if(ip != null) {
+            Set<WatchlistPlayerData> ipMatches = watchlistIps.get(ip);
+            if(ipMatches != null) {
+                return ipMatches;
+            }
         }
         return Collections.emptyList();
     }
 
     public String getName(WatchlistPlayerData playerData) {
-        return watchlist.entrySet().stream().filter(entry -> entry.getValue().getUuid().equals(playerData.getUuid()))
-                .map(Map.Entry::getKey).findFirst().orElse(null);
+        return watchlistKeys.get(playerData);
+    }
+
+    /**
+     * Applies modifications saved after the loaded entries, e.g. journal records, at startup. Works like the
+     * corresponding modifications, without saving them again.
+     */
+    private class JournalReplayer implements WatchlistChanges {
+
+        @Override
+        public void addReason(String name, UUID uuid, String ip, WatchlistReason reason) {
+            WatchlistPlayerData data = getWatchlistData(name);
+            if(data != null) {
+                data.addReason(reason);
+                setWatchlistIp(data, ip);
+            } else {
+                putWatchlist(name, new WatchlistPlayerData(uuid, ip, reason));
+            }
+        }
+
+        @Override
+        public void removeReason(String name, int index, WatchlistReason reason) {
+            WatchlistPlayerData data = getWatchlistData(name);
+            if(data != null && index < data.getReasonCount()) {
+                data.removeReason(index);
+            }
+        }
+
+        @Override
+        public void removePlayer(String name) {
+            removeFromWatchlist(name);
+        }
+
+        @Override
+        public void bindUuid(String name, UUID uuid) {
+            WatchlistPlayerData data = getWatchlistData(name);
+            if(data != null) {
+                setWatchlistUuid(data, uuid);
+            }
+        }
+
+        @Override
+        public void rename(String oldName, String newName, boolean nameUnknown) {
+            WatchlistPlayerData data = removeFromWatchlist(oldName);
+            if(data != null) {
+                data.setNameUnknown(nameUnknown);
+                putWatchlist(newName, data);
+            }
+        }
+
+        @Override
+        public void merge(String source, String target) {
+            WatchlistPlayerData targetData = getWatchlistData(target);
+            if(targetData != null && targetData != getWatchlistData(source)) {
+                WatchlistPlayerData sourceData = removeFromWatchlist(source);
+                if(sourceData != null) {
+                    targetData.addReasons(sourceData.getReasons());
+                }
+            }
+        }
     }
 }
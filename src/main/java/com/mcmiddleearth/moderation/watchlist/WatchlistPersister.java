@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind persistence for the watchlist. Modifications only mark the watchlist dirty. A single background thread
+ * runs the save task after no further modification happened for the flush interval, but never later than the maximum
+ * delay after the first unsaved modification. Bursts of modifications are written to file only once.
+ */
+
+public class WatchlistPersister {
+
+    private final Runnable saveTask;
+
+    private final long flushInterval;
+    private final long maxFlushDelay;
+
+    private final ScheduledExecutorService executor;
+
+    private final Object lock = new Object();
+
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * System.nanoTime() of the first modification that is not saved yet, -1 if there is none.
+     */
+    private long firstDirtyTime = -1;
+
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * @param saveTask task that writes the watchlist to the backing file
+     * @param flushInterval quiet time in milliseconds after the last modification before the watchlist is saved
+     * @param maxFlushDelay maximum time in milliseconds a modification may stay unsaved
+     */
+    public WatchlistPersister(Runnable saveTask, long flushInterval, long maxFlushDelay) {
+        this.saveTask = saveTask;
+        this.flushInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushInterval));
+        this.maxFlushDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(flushInterval, maxFlushDelay));
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MCME-Moderation watchlist writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Call after each modification of the watchlist.
+     */
+    public void markDirty() {
+        synchronized (lock) {
+            long now = System.nanoTime();
+            if (firstDirtyTime < 0) {
+                firstDirtyTime = now;
+            } else {
+                coalescedCount.incrementAndGet();
+            }
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+            }
+            long delay = Math.min(flushInterval, firstDirtyTime + maxFlushDelay - now);
+            try {
+                scheduledFlush = executor.schedule(this::flushIfDirty, Math.max(0, delay), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ex) {
+                // persister is shut down, nothing will be saved any more
+                scheduledFlush = null;
+            }
+        }
+    }
+
+    /**
+     * Writes pending modifications immediately and waits until they are saved.
+     */
+    public void flush() {
+        try {
+            executor.submit(this::flushIfDirty).get();
+        } catch (RejectedExecutionException ex) {
+            flushIfDirty();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Saving watchlist failed!", ex.getCause());
+        }
+    }
+
+    /**
+     * Writes pending modifications and stops the background thread.
+     */
+    public void shutdown() {
+        flush();
+        executor.shutdown();
+    }
+
+    private void flushIfDirty() {
+        synchronized (lock) {
+            if (firstDirtyTime < 0) {
+                return;
+            }
+            firstDirtyTime = -1;
+            scheduledFlush = null;
+        }
+        try {
+            saveTask.run();
+            writeCount.incrementAndGet();
+        } catch (RuntimeException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).log(Level.WARNING, "Saving watchlist failed!", ex);
+            markDirty();
+        }
+    }
+
+    public boolean isDirty() {
+        synchronized (lock) {
+            return firstDirtyTime >= 0;
+        }
+    }
+
+    /**
+     * @return number of file writes done by this persister
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * @return number of modifications that were merged into a write of an earlier modification
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
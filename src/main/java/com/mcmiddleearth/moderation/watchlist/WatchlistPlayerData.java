@@ -16,8 +16,9 @@
  */
 package com.mcmiddleearth.moderation.watchlist;
 
-import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Eriol_Eandur
@@ -27,13 +28,46 @@ public class WatchlistPlayerData {
 
     private static final UUID unknownUuid = UUID.fromString("00000000-0000-0000-0000-000000000000");
 
-    private boolean nameUnknown = false;
+    /**
+     * Source of modification versions. Each modification of watchlist data gets a higher version than all modifications
+     * before, so comparing the version with the version of a copy tells if the entry changed.
+     */
+    private static final AtomicLong modificationCounter = new AtomicLong();
+
+    private volatile long version = nextVersion();
 
-    private UUID uuid;
+    private volatile boolean nameUnknown = false;
 
-    private String ip;
+    private volatile UUID uuid;
 
-    private final List<WatchlistReason> reasons = new ArrayList<>();
+    private volatile String ip;
+
+    /**
+     * Reasons of this entry, null until they are loaded by the reasonLoader. Copy on write, so readers can iterate the
+     * reasons while they are modified.
+     */
+    private volatile List<WatchlistReason> reasons;
+
+    private ReasonLoader reasonLoader;
+
+    /**
+     * Header data of the reasons that is valid before they are loaded.
+     */
+    private final int reasonCount;
+    private final long latestReasonTime;
+
+    /**
+     * Loads the reasons of a watchlist entry from the backing storage on first access.
+     */
+    public interface ReasonLoader {
+
+        /**
+         * Loaders keep the loaded reasons, as snapshots of the watchlist may still load them from the same loader.
+         * @return reasons of the entry sorted like they were stored
+         * @throws RuntimeException if reading fails
+         */
+        List<WatchlistReason> load();
+    }
 
     public WatchlistPlayerData(UUID uuid, String ip, WatchlistReason reason) {
         this.uuid = (uuid != null ? uuid : unknownUuid);
@@ -41,7 +75,37 @@ public class WatchlistPlayerData {
             ip = "unknown";
         }
         this.ip = ip;
-        reasons.add(reason);
+        reasons = new CopyOnWriteArrayList<>(Collections.singletonList(reason));
+        reasonCount = 0;
+        latestReasonTime = 0;
+    }
+
+    /**
+     * Constructor to read data from a binary watchlist snapshot
+     */
+    WatchlistPlayerData(UUID uuid, String ip, boolean nameUnknown, List<WatchlistReason> reasons) {
+        this.uuid = (uuid != null ? uuid : unknownUuid);
+        this.ip = (ip != null ? ip : "unknown");
+        this.nameUnknown = nameUnknown;
+        this.reasons = new CopyOnWriteArrayList<>(reasons);
+        reasonCount = 0;
+        latestReasonTime = 0;
+    }
+
+    /**
+     * Constructor for entries which load their reasons on first access.
+     * @param reasonCount number of stored reasons
+     * @param latestReasonTime creation time of the latest stored reason in epoch milliseconds
+     * @param reasonLoader loads the stored reasons
+     */
+    WatchlistPlayerData(UUID uuid, String ip, boolean nameUnknown, int reasonCount, long latestReasonTime,
+                        ReasonLoader reasonLoader) {
+        this.uuid = (uuid != null ? uuid : unknownUuid);
+        this.ip = (ip != null ? ip : "unknown");
+        this.nameUnknown = nameUnknown;
+        this.reasonCount = reasonCount;
+        this.latestReasonTime = latestReasonTime;
+        this.reasonLoader = reasonLoader;
     }
 
     /**
@@ -57,17 +121,68 @@ public class WatchlistPlayerData {
             ip = "unknown";
         }
         List<Map<String,Object>> reasonData = (List<Map<String,Object>>) data.get("reasons");
-        reasonData.forEach(reason -> {
-            try {
-                reasons.add(new WatchlistReason(reason));
-            } catch (ParseException e) {
-                e.printStackTrace();
-            }
-        });
+        List<WatchlistReason> loadedReasons = new ArrayList<>(reasonData.size());
+        reasonCount = 0;
+        latestReasonTime = 0;
+        reasonData.forEach(reason -> loadedReasons.add(new WatchlistReason(reason)));
+        reasons = new CopyOnWriteArrayList<>(loadedReasons);
     }
 
     public List<WatchlistReason> getReasons() {
-        return reasons;
+        return Collections.unmodifiableList(loadReasons());
+    }
+
+    private List<WatchlistReason> loadReasons() {
+        List<WatchlistReason> loaded = reasons;
+        if(loaded == null) {
+            synchronized(this) {
+                loaded = reasons;
+                if(loaded == null) {
+                    loaded = new CopyOnWriteArrayList<>(reasonLoader.load());
+                    reasons = loaded;
+                    reasonLoader = null;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * @return true if the reasons of this entry are in memory
+     */
+    public boolean isReasonsLoaded() {
+        return reasons != null;
+    }
+
+    /**
+     * @return loader of the reasons or null if they are loaded already
+     */
+    synchronized ReasonLoader getReasonLoader() {
+        return reasonLoader;
+    }
+
+    /**
+     * Get the number of reasons without loading them.
+     */
+    public int getReasonCount() {
+        List<WatchlistReason> loaded = reasons;
+        return (loaded != null ? loaded.size() : reasonCount);
+    }
+
+    /**
+     * Get the creation time of the latest reason without loading the reasons.
+     * @return creation time in epoch milliseconds or 0 if there are no reasons
+     */
+    public long getLatestReasonTime() {
+        List<WatchlistReason> loaded = reasons;
+        if(loaded == null) {
+            return latestReasonTime;
+        }
+        long latest = 0;
+        for(WatchlistReason reason: loaded) {
+            latest = Math.max(latest, reason.getCreationTime().getTime());
+        }
+        return latest;
     }
 
     public UUID getUuid() {
@@ -83,19 +198,26 @@ public class WatchlistPlayerData {
     }
 
     public void setIp(String ip) {
-        this.ip = ip;
+        if(!Objects.equals(this.ip, ip)) {
+            this.ip = ip;
+            modified();
+        }
     }
 
     public void setUuid(UUID uuid) {
         if (this.uuid.equals(unknownUuid) && uuid != null) {
             this.uuid = uuid;
+            modified();
         }
     }
 
     public boolean isNameUnknown() { return nameUnknown; }
 
     public void setNameUnknown(boolean nameUnknown) {
-        this.nameUnknown = nameUnknown;
+        if(this.nameUnknown != nameUnknown) {
+            this.nameUnknown = nameUnknown;
+            modified();
+        }
     }
 
     /**
@@ -107,7 +229,7 @@ public class WatchlistPlayerData {
         Map<String, Object> result = new HashMap<>();
         result.put("uuid", uuid.toString());
         List<Map<String, Object>> reasonData = new ArrayList<>();
-        reasons.forEach(reason -> reasonData.add(reason.serialize()));
+        loadReasons().forEach(reason -> reasonData.add(reason.serialize()));
         result.put("reasons", reasonData);
         result.put("nameUnknown",nameUnknown);
         result.put("ip",ip);
@@ -115,6 +237,39 @@ public class WatchlistPlayerData {
     }
 
     public void addReason(WatchlistReason watchlistReason) {
-        reasons.add(watchlistReason);
+        loadReasons().add(watchlistReason);
+        modified();
+    }
+
+    /**
+     * Adds reasons e.g. of another watchlist entry of the same player and sorts all reasons by creation time.
+     * @param watchlistReasons reasons to add
+     */
+    public void addReasons(Collection<WatchlistReason> watchlistReasons) {
+        List<WatchlistReason> reasons = loadReasons();
+        reasons.addAll(watchlistReasons);
+        reasons.sort(Comparator.comparing(WatchlistReason::getCreationTime));
+        modified();
+    }
+
+    public WatchlistReason removeReason(int index) {
+        WatchlistReason removed = loadReasons().remove(index);
+        modified();
+        return removed;
+    }
+
+    /**
+     * @return version of the last modification of this entry
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private void modified() {
+        version = nextVersion();
+    }
+
+    private static long nextVersion() {
+        return modificationCounter.incrementAndGet();
     }
 }
@@ -16,12 +16,13 @@
  */
 package com.mcmiddleearth.moderation.watchlist;
 
-import java.text.DateFormat;
+import com.mcmiddleearth.moderation.ModerationPlugin;
+
 import java.text.ParseException;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
+import java.util.logging.Logger;
 
 /**
  * @author Eriol_Eandur
@@ -39,6 +40,17 @@ public class WatchlistReason {
 
     private final String nameAtCreationTime;
 
+    /**
+     * Creation time text from watchlist.yml which could not be read, null if the creation time is valid. It's written
+     * back unchanged so the date is not lost.
+     */
+    private final String unparsedCreationTime;
+
+    /**
+     * Id of the reason in watchlist.db, 0 if it's not stored in a database.
+     */
+    private volatile long storeId;
+
     //private final static String dateFormatPattern = "EEE, MMM d, yy, h:mm:ss a";
 
     /**
@@ -54,23 +66,45 @@ public class WatchlistReason {
         this.initiator = initiator;
         this.byModerator = byModerator;
         this.nameAtCreationTime = nameAtCreationTime;
+        this.unparsedCreationTime = null;
     }
 
     /**
-     * Constructor to load data from watchlist.yml
+     * Constructor to load data from watchlist.yml. If the creation time is not readable, a warning is logged and the
+     * text is kept.
      * @param data read from watchlist.yml by YamlBridge class
-     * @throws ParseException thrown when date in watchlist.yml is not readable
      */
-    public WatchlistReason(Map<String,Object> data) throws ParseException {
-        this(DateFormat.getDateTimeInstance(DateFormat.DEFAULT,DateFormat.DEFAULT,Locale.US).parse((String) data.get("creationTime")),
-                (String) data.get("description"), (String) data.get("initiator"), (String) data.get("nameAtCreationTime"),
-                (boolean) data.get("byModerator"));
+    public WatchlistReason(Map<String,Object> data) {
+        Object time = data.get("creationTime");
+        Date parsed;
+        String unparsed = null;
+        try {
+            parsed = TimestampCodec.parse(time);
+        } catch (ParseException ex) {
+            Logger.getLogger(ModerationPlugin.class.getName()).warning("Unreadable creation time '" + time
+                    + "' of watchlist reason '" + data.get("description") + "', keeping the text.");
+            parsed = new Date(0);
+            unparsed = (time != null ? time.toString() : null);
+        }
+        this.creationTime = parsed;
+        this.unparsedCreationTime = unparsed;
+        this.description = (String) data.get("description");
+        this.initiator = (String) data.get("initiator");
+        this.nameAtCreationTime = (String) data.get("nameAtCreationTime");
+        this.byModerator = (boolean) data.get("byModerator");
     }
 
     public Date getCreationTime() {
         return creationTime;
     }
 
+    /**
+     * @return creation time text from watchlist.yml which could not be read, null if the creation time is valid
+     */
+    public String getUnparsedCreationTime() {
+        return unparsedCreationTime;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -85,13 +119,22 @@ public class WatchlistReason {
         return byModerator;
     }
 
+    long getStoreId() {
+        return storeId;
+    }
+
+    void setStoreId(long storeId) {
+        this.storeId = storeId;
+    }
+
     /**
      * Required to save data to watchlist.yml
      * @return Map of WatchlistReason
      */
     public Map<String,Object> serialize() {
         Map<String,Object> result = new HashMap<>();
-        result.put("creationTime", DateFormat.getDateTimeInstance(DateFormat.DEFAULT,DateFormat.DEFAULT,Locale.US).format(creationTime));
+        result.put("creationTime", (unparsedCreationTime != null ? unparsedCreationTime
+                                                                 : TimestampCodec.format(creationTime)));
         result.put("description", description);
         result.put("initiator",initiator);
         result.put("nameAtCreationTime",nameAtCreationTime);
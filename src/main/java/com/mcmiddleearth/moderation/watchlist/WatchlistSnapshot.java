@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import java.util.*;
+
+/**
+ * Immutable view of the whole watchlist. A new snapshot is published after each modification, so readers get a
+ * consistent view without locking. Unchanged entries are shared between snapshots.
+ * <p>
+ * Entries are kept in a persistent balanced tree sorted by lower case name. A new snapshot copies only the tree nodes
+ * on the paths to the changed names, so publishing a modification takes O(log n) per changed entry instead of copying
+ * the whole watchlist. In exchange lookups by name and by sorted index take O(log n) instead of constant time, which
+ * is cheap compared to the commands and listeners using them. All changes of one modification are applied to the
+ * tree together and published with one snapshot.
+ */
+
+public final class WatchlistSnapshot {
+
+    private static final WatchlistSnapshot EMPTY = new WatchlistSnapshot(0, null);
+
+    private final long version;
+
+    /**
+     * Root of the tree of entries by lower case name, null if the watchlist is empty.
+     */
+    private final Node root;
+
+    private WatchlistSnapshot(long version, Node root) {
+        this.version = version;
+        this.root = root;
+    }
+
+    /**
+     * Creates the first snapshot of a watchlist with version 0. The watchlist must not be modified concurrently.
+     */
+    static WatchlistSnapshot of(Map<String,WatchlistPlayerData> watchlist) {
+        if(watchlist.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String,WatchlistEntry> entries = new TreeMap<>();
+        watchlist.forEach((name, data) -> entries.put(name.toLowerCase(), WatchlistEntry.of(name, data)));
+        String[] keys = entries.keySet().toArray(new String[0]);
+        WatchlistEntry[] values = entries.values().toArray(new WatchlistEntry[0]);
+        return new WatchlistSnapshot(0, Node.build(keys, values, 0, keys.length));
+    }
+
+    /**
+     * @param changes new entries by lower case name, null values for removed entries
+     * @return a new snapshot with the next version
+     */
+    WatchlistSnapshot with(Map<String,WatchlistEntry> changes) {
+        Node newRoot = root;
+        for(Map.Entry<String,WatchlistEntry> change: changes.entrySet()) {
+            if(change.getValue() != null) {
+                newRoot = Node.put(newRoot, change.getKey(), change.getValue());
+            } else {
+                newRoot = Node.remove(newRoot, change.getKey());
+            }
+        }
+        return new WatchlistSnapshot(version + 1, newRoot);
+    }
+
+    /**
+     * @return version of this snapshot. It is increased with each published modification, so caches built from a
+     *         snapshot are valid as long as the version didn't change.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param name player name in any case
+     * @return entry of the player or null if not on watchlist
+     */
+    public WatchlistEntry get(String name) {
+        return (name != null ? Node.get(root, name.toLowerCase()) : null);
+    }
+
+    public boolean contains(String name) {
+        return get(name) != null;
+    }
+
+    /**
+     * @return all entries, sorted by lower case name
+     */
+    public Collection<WatchlistEntry> getEntries() {
+        return getSortedEntries();
+    }
+
+    public int size() {
+        return Node.size(root);
+    }
+
+    /**
+     * @return all entries sorted by lower case name. Accessing an index of the list takes O(log n), iterating the
+     *         list takes linear time.
+     */
+    public List<WatchlistEntry> getSortedEntries() {
+        return new SortedEntries();
+    }
+
+    private class SortedEntries extends AbstractList<WatchlistEntry> implements RandomAccess {
+
+        @Override
+        public WatchlistEntry get(int index) {
+            if(index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return Node.getAt(root, index);
+        }
+
+        @Override
+        public int size() {
+            return Node.size(root);
+        }
+
+        @Override
+        public Iterator<WatchlistEntry> iterator() {
+            return new NodeIterator(root);
+        }
+    }
+
+    private static class NodeIterator implements Iterator<WatchlistEntry> {
+
+        private final Deque<Node> path = new ArrayDeque<>();
+
+        private NodeIterator(Node root) {
+            pushLeft(root);
+        }
+
+        private void pushLeft(Node node) {
+            while(node != null) {
+                path.push(node);
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public WatchlistEntry next() {
+            if(path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node node = path.pop();
+            pushLeft(node.right);
+            return node.value;
+        }
+    }
+
+    /**
+     * Immutable node of an AVL tree which knows the size of its subtree for access by index. Modifications return a
+     * new root and share all nodes which are not on the path to the modified key.
+     */
+    private static final class Node {
+
+        private final String key;
+        private final WatchlistEntry value;
+        private final Node left;
+        private final Node right;
+        private final int height;
+        private final int size;
+
+        private Node(String key, WatchlistEntry value, Node left, Node right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        private static int height(Node node) {
+            return (node != null ? node.height : 0);
+        }
+
+        private static int size(Node node) {
+            return (node != null ? node.size : 0);
+        }
+
+        /**
+         * Builds a balanced tree from sorted keys in linear time.
+         */
+        private static Node build(String[] keys, WatchlistEntry[] values, int from, int to) {
+            if(from >= to) {
+                return null;
+            }
+            int middle = (from + to) >>> 1;
+            return new Node(keys[middle], values[middle], build(keys, values, from, middle),
+                                                          build(keys, values, middle + 1, to));
+        }
+
+        private static WatchlistEntry get(Node node, String key) {
+            while(node != null) {
+                int compare = key.compareTo(node.key);
+                if(compare == 0) {
+                    return node.value;
+                }
+                node = (compare < 0 ? node.left : node.right);
+            }
+            return null;
+        }
+
+        private static WatchlistEntry getAt(Node node, int index) {
+            while(true) {
+                int leftSize = size(node.left);
+                if(index < leftSize) {
+                    node = node.left;
+                } else if(index > leftSize) {
+                    index -= leftSize + 1;
+                    node = node.right;
+                } else {
+                    return node.value;
+                }
+            }
+        }
+
+        private static Node put(Node node, String key, WatchlistEntry value) {
+            if(node == null) {
+                return new Node(key, value, null, null);
+            }
+            int compare = key.compareTo(node.key);
+            if(compare < 0) {
+                return balance(node.key, node.value, put(node.left, key, value), node.right);
+            } else if(compare > 0) {
+                return balance(node.key, node.value, node.left, put(node.right, key, value));
+            } else {
+                return (node.value == value ? node : new Node(key, value, node.left, node.right));
+            }
+        }
+
+        private static Node remove(Node node, String key) {
+            if(node == null) {
+                return null;
+            }
+            int compare = key.compareTo(node.key);
+            if(compare < 0) {
+                Node newLeft = remove(node.left, key);
+                return (newLeft == node.left ? node : balance(node.key, node.value, newLeft, node.right));
+            } else if(compare > 0) {
+                Node newRight = remove(node.right, key);
+                return (newRight == node.right ? node : balance(node.key, node.value, node.left, newRight));
+            } else if(node.left == null) {
+                return node.right;
+            } else if(node.right == null) {
+                return node.left;
+            } else {
+                Node min = node.right;
+                while(min.left != null) {
+                    min = min.left;
+                }
+                return balance(min.key, min.value, node.left, removeMin(node.right));
+            }
+        }
+
+        private static Node removeMin(Node node) {
+            if(node.left == null) {
+                return node.right;
+            }
+            return balance(node.key, node.value, removeMin(node.left), node.right);
+        }
+
+        private static Node balance(String key, WatchlistEntry value, Node left, Node right) {
+            int difference = height(left) - height(right);
+            if(difference > 1) {
+                if(height(left.left) < height(left.right)) {
+                    left = rotateLeft(left.key, left.value, left.left, left.right);
+                }
+                return rotateRight(key, value, left, right);
+            } else if(difference < -1) {
+                if(height(right.right) < height(right.left)) {
+                    right = rotateRight(right.key, right.value, right.left, right.right);
+                }
+                return rotateLeft(key, value, left, right);
+            }
+            return new Node(key, value, left, right);
+        }
+
+        private static Node rotateRight(String key, WatchlistEntry value, Node left, Node right) {
+            return new Node(left.key, left.value, left.left, new Node(key, value, left.right, right));
+        }
+
+        private static Node rotateLeft(String key, WatchlistEntry value, Node left, Node right) {
+            return new Node(right.key, right.value, new Node(key, value, left, right.left), right.right);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backing storage of the watchlist. The watchlist manager keeps all entries in memory and reports each modification
+ * to the storage, which saves the modification itself or a snapshot of the whole watchlist.
+ * <p>
+ * Modifications are reported after the entries in memory were modified, followed by a commit with the watchlist
+ * snapshot that contains them. Reporting and committing is serialized by the watchlist manager.
+ */
+
+public interface WatchlistStore extends WatchlistChanges {
+
+    interface EntryConsumer {
+        void accept(String name, WatchlistPlayerData data);
+    }
+
+    /**
+     * Loads the watchlist at startup.
+     * @param consumer receives all stored entries
+     * @param changes receives modifications which were saved after the stored entries, e.g. from the journal
+     */
+    void load(EntryConsumer consumer, WatchlistChanges changes);
+
+    /**
+     * Called when a modification of the watchlist is complete and after loading.
+     * @param snapshot published watchlist snapshot which contains all reported modifications
+     */
+    void commit(WatchlistSnapshot snapshot);
+
+    /**
+     * Replaces all stored data with a snapshot, e.g. after entries were merged during loading.
+     * @param snapshot published watchlist snapshot which contains all reported modifications
+     */
+    void saveAll(WatchlistSnapshot snapshot);
+
+    /**
+     * @param initiator name of a player, case insensitive
+     * @return all watchlist reasons created by the initiator with the watchlist key of their entry
+     */
+    List<Map.Entry<String,WatchlistReason>> findByInitiator(String initiator);
+
+    /**
+     * @param since earliest creation time
+     * @return all watchlist reasons created since the given time with the watchlist key of their entry
+     */
+    List<Map.Entry<String,WatchlistReason>> findSince(Date since);
+
+    /**
+     * Saves pending modifications and waits until they are written.
+     */
+    void flush();
+
+    /**
+     * Saves pending modifications and releases all resources. Call when the plugin is disabled.
+     */
+    void close();
+}
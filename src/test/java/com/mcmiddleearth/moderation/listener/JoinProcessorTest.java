@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.listener;
+
+import com.mcmiddleearth.moderation.ModerationPlugin;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class JoinProcessorTest {
+
+    @Test(timeout = 10000)
+    public void deferredJoinsAreProcessedWhenQueueHasSpace() throws InterruptedException {
+        JoinProcessor processor = new JoinProcessor(2, 100, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        Set<Integer> processed = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(50);
+        processor.submit(-1, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for(int i = 0; i < 50; i++) {
+            int key = i;
+            processor.submit(key, () -> {
+                processed.add(key);
+                done.countDown();
+            });
+        }
+        // a newer join of the same player replaces its deferred checks
+        processor.submit(49, () -> fail("Deferred join was not replaced"));
+        processor.submit(49, () -> {
+            processed.add(49);
+            done.countDown();
+        });
+        assertTrue(processor.getDeferredDepth() > 0);
+        blocked.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        processor.shutdown();
+        assertEquals(50, processed.size());
+        assertEquals(0, processor.getDroppedCount());
+        assertEquals(0, processor.getDeferredDepth());
+    }
+
+    @Test(timeout = 10000)
+    public void oldestDeferredJoinIsDroppedWhenFull() throws InterruptedException {
+        JoinProcessor processor = new JoinProcessor(1, 2, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        Set<Integer> processed = ConcurrentHashMap.newKeySet();
+        processor.submit(-1, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        while(processor.getQueueDepth() > 0) {
+            Thread.sleep(1);
+        }
+        for(int i = 0; i < 5; i++) {
+            int key = i;
+            processor.submit(key, () -> processed.add(key));
+        }
+        assertEquals(2, processor.getDroppedCount());
+        blocked.countDown();
+        while(processed.size() < 3) {
+            Thread.sleep(1);
+        }
+        processor.shutdown();
+        assertFalse(processed.contains(1));
+        assertFalse(processed.contains(2));
+        assertTrue(processed.contains(0));
+        assertTrue(processed.contains(3));
+        assertTrue(processed.contains(4));
+    }
+
+    @Test(timeout = 10000)
+    public void reportLogsOnlyWhileJoinsAreWaiting() throws InterruptedException {
+        List<String> messages = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if(record.getMessage().startsWith("Join queue:")) {
+                    messages.add(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(ModerationPlugin.class.getName());
+        logger.addHandler(handler);
+        try {
+            JoinProcessor processor = new JoinProcessor(4, 100, 1);
+            processor.report();
+            assertTrue(messages.isEmpty());
+
+            CountDownLatch blocked = new CountDownLatch(1);
+            processor.submit(-1, () -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for(int i = 0; i < 10; i++) {
+                processor.submit(i, () -> { });
+            }
+            processor.report();
+            assertEquals(1, messages.size());
+            assertTrue(messages.get(0), messages.get(0).contains(" deferred, "));
+            assertTrue(messages.get(0), messages.get(0).contains("/4 waiting"));
+
+            blocked.countDown();
+            while(processor.getProcessedCount() < 11) {
+                Thread.sleep(1);
+            }
+            // the deferred joins are reported once after the queue emptied
+            processor.report();
+            assertEquals(2, messages.size());
+            assertTrue(messages.get(1), messages.get(1).startsWith("Join queue: 0/4 waiting, 0 deferred, 11 processed"));
+            processor.report();
+            assertEquals(2, messages.size());
+            processor.shutdown();
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+}
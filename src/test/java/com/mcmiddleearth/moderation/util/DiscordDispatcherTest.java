@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DiscordDispatcherTest {
+
+    @Test
+    public void shortMessagesAreNotChanged() {
+        assertEquals("Player joined", DiscordDispatcher.truncate("Player joined", 13));
+    }
+
+    @Test
+    public void truncatesAtWordBoundaryWithMarker() {
+        StringBuilder message = new StringBuilder();
+        for(int i = 0; i < 100; i++) {
+            message.append("word").append(i).append(' ');
+        }
+        String truncated = DiscordDispatcher.truncate(message.toString(), 200);
+        assertTrue(truncated.length() <= 200);
+        assertTrue(truncated.endsWith(DiscordDispatcher.TRUNCATED_MARKER));
+        String kept = truncated.substring(0, truncated.length() - DiscordDispatcher.TRUNCATED_MARKER.length());
+        assertTrue(message.toString().startsWith(kept + " "));
+    }
+
+    @Test
+    public void neverSplitsSurrogatePairs() {
+        StringBuilder message = new StringBuilder();
+        for(int i = 0; i < 300; i++) {
+            message.append("\uD83D\uDE00");
+        }
+        for(int maxLength = 30; maxLength < 60; maxLength++) {
+            String truncated = DiscordDispatcher.truncate(message.toString(), maxLength);
+            assertTrue(truncated.length() <= maxLength);
+            String kept = truncated.substring(0, truncated.length() - DiscordDispatcher.TRUNCATED_MARKER.length());
+            assertEquals(0, kept.length() % 2);
+            assertFalse(Character.isHighSurrogate(kept.charAt(kept.length() - 1)));
+        }
+    }
+
+    @Test
+    public void closesOpenCodeBlocks() {
+        StringBuilder message = new StringBuilder("Reasons:\n```");
+        for(int i = 0; i < 100; i++) {
+            message.append("\nreason ").append(i);
+        }
+        message.append("\n```");
+        String truncated = DiscordDispatcher.truncate(message.toString(), 150);
+        assertTrue(truncated.length() <= 150);
+        assertTrue(truncated.endsWith("\n```" + DiscordDispatcher.TRUNCATED_MARKER));
+
+        StringBuilder inlineCode = new StringBuilder("Name `");
+        for(int i = 0; i < 20; i++) {
+            inlineCode.append("part").append(i).append(' ');
+        }
+        String inline = DiscordDispatcher.truncate(inlineCode.toString(), 60);
+        assertTrue(inline.length() <= 60);
+        assertTrue(inline.endsWith("`" + DiscordDispatcher.TRUNCATED_MARKER));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class KnownPlayerDirectoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lookupsDontChangeHotSet() {
+        List<String> events = new ArrayList<>();
+        KnownPlayerDirectory directory = new KnownPlayerDirectory(new File(folder.getRoot(), "knownplayers.dat"), 2,
+                new KnownPlayerDirectory.HotSetListener() {
+            @Override
+            public void added(String name) {
+                events.add("+" + name);
+            }
+
+            @Override
+            public void removed(String name) {
+                events.add("-" + name);
+            }
+        });
+        UUID first = UUID.randomUUID();
+        directory.seen("First", first, 1);
+        directory.seen("Second", UUID.randomUUID(), 2);
+        directory.seen("Third", UUID.randomUUID(), 3);
+        assertEquals(Arrays.asList("+First", "+Second", "-First", "+Third"), events);
+
+        events.clear();
+        assertEquals(first, directory.get("first").getUuid());
+        assertEquals("First", directory.get(first).getName());
+        assertEquals(1, directory.get("FIRST").getLastSeen());
+        assertTrue(events.isEmpty());
+        assertEquals(Arrays.asList("Second", "Third"), new ArrayList<>(directory.getRecentPlayers().keySet()));
+
+        directory.seen("Second", directory.get("second").getUuid(), 4);
+        directory.seen("Fourth", UUID.randomUUID(), 5);
+        assertEquals(Collections.singletonList("-Third"), events.subList(0, 1));
+        assertEquals(Arrays.asList("Second", "Fourth"), new ArrayList<>(directory.getRecentPlayers().keySet()));
+        assertEquals(4, directory.size());
+
+        directory.close();
+        assertNull(directory.get("first"));
+        assertEquals(4, directory.get("second").getLastSeen());
+
+        KnownPlayerDirectory reopened = new KnownPlayerDirectory(new File(folder.getRoot(), "knownplayers.dat"), 2,
+                new KnownPlayerDirectory.HotSetListener() {
+            @Override
+            public void added(String name) {
+            }
+
+            @Override
+            public void removed(String name) {
+            }
+        });
+        assertEquals(4, reopened.size());
+        assertEquals(first, reopened.get("First").getUuid());
+        assertTrue(reopened.getRecentPlayers().isEmpty());
+        reopened.close();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TimestampCodecTest {
+
+    @Test
+    public void readsFormsOfDefaultLocale() throws ParseException {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            Date time = new Date(1598985441000L);
+            String text = DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT).format(time);
+            assertEquals(time, TimestampCodec.parse(text));
+            assertEquals(time, TimestampCodec.parse(TimestampCodec.format(time)));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void unreadableCreationTimeIsKept() {
+        Map<String,Object> data = new HashMap<>();
+        data.put("creationTime", "sometime in 2020");
+        data.put("description", "test");
+        data.put("initiator", "Moderator");
+        data.put("nameAtCreationTime", "Player");
+        data.put("byModerator", true);
+        WatchlistReason reason = new WatchlistReason(data);
+        assertEquals("sometime in 2020", reason.getUnparsedCreationTime());
+        assertEquals("sometime in 2020", reason.serialize().get("creationTime"));
+        assertEquals("test", reason.getDescription());
+    }
+}
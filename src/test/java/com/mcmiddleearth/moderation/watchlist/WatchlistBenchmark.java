@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import com.mcmiddleearth.moderation.configuration.YamlBridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Reproducible measurements of the watchlist storage and search. Not a unit test, run it with the test classpath:
+ * <pre>
+ * java -Xmx4g -cp target/test-classes:target/classes:&lt;dependencies&gt;
+ *      com.mcmiddleearth.moderation.watchlist.WatchlistBenchmark [reasons...]
+ * </pre>
+ * <ul>
+ *     <li>Startup load of watchlist.yml and watchlist.dat with 10k, 100k and 1M reasons (two reasons per entry), like
+ *         FileWatchlistStore loads them. The legacy YAML file stores timestamps in the old DateFormat form and is read
+ *         with a DateFormat per reason like before the timestamp codec.</li>
+ *     <li>Parsing and formatting of timestamps with a DateFormat per call and with TimestampCodec.</li>
+ *     <li>Substring search of 100k watchlist names by linear scan and with the trigram index.</li>
+ * </ul>
+ * Each measurement is repeated and the fastest run is reported, after a warm up run.
+ */
+
+public class WatchlistBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private static final int REASONS_PER_ENTRY = 2;
+
+    /**
+     * Keeps the results of the measured tasks, so the JIT can't drop the work.
+     */
+    private static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = (args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                                       : new int[]{10_000, 100_000, 1_000_000});
+        System.out.println("Java " + System.getProperty("java.version") + ", max heap "
+                + Runtime.getRuntime().maxMemory() / (1 << 20) + " MB");
+        File folder = Files.createTempDirectory("watchlist-benchmark").toFile();
+        try {
+            for(int reasons: sizes) {
+                benchmarkLoad(folder, reasons);
+            }
+            benchmarkTimestamps(200_000);
+            benchmarkSearch(100_000);
+        } finally {
+            File[] files = folder.listFiles();
+            if(files != null) {
+                Arrays.stream(files).forEach(File::delete);
+            }
+            folder.delete();
+        }
+    }
+
+    private static void benchmarkLoad(File folder, int reasonCount) throws IOException {
+        Map<String,WatchlistEntry> entries = createEntries(reasonCount / REASONS_PER_ENTRY);
+        File yamlFile = new File(folder, "watchlist.yml");
+        File legacyFile = new File(folder, "watchlist-legacy.yml");
+        File binaryFile = new File(folder, "watchlist.dat");
+        // files are written one after the other to keep the heap usage of the 1M case low
+        Map<String,WatchlistBinaryFormat.EntryBytes> binaryEntries = new LinkedHashMap<>();
+        entries.forEach((name, entry) -> binaryEntries.put(name, WatchlistBinaryFormat.serialize(entry)));
+        WatchlistBinaryFormat.write(binaryFile, 0, binaryEntries);
+        binaryEntries.clear();
+        YamlBridge yaml = new YamlBridge();
+        entries.forEach((name, entry) -> yaml.set(name, entry.serialize()));
+        yaml.save(yamlFile);
+        yaml.getMap().clear();
+        DateFormat legacyFormat = DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US);
+        entries.forEach((name, entry) -> {
+            Map<String,Object> data = entry.serialize();
+            List<Map<String,Object>> legacyReasons = new ArrayList<>();
+            entry.getReasons().forEach(reason -> {
+                Map<String,Object> reasonData = reason.serialize();
+                reasonData.put("creationTime", legacyFormat.format(reason.getCreationTime()));
+                legacyReasons.add(reasonData);
+            });
+            data.put("reasons", legacyReasons);
+            yaml.set(name, data);
+        });
+        entries.clear();
+        yaml.save(legacyFile);
+        yaml.getMap().clear();
+        System.out.println();
+        System.out.println("Startup load, " + reasonCount + " reasons in " + reasonCount / REASONS_PER_ENTRY
+                + " entries: yml " + yamlFile.length() / 1024 + " KB, legacy yml " + legacyFile.length() / 1024
+                + " KB, dat " + binaryFile.length() / 1024 + " KB");
+        report("dat, entry headers only", () -> loadBinary(binaryFile, false));
+        report("dat, including all reasons", () -> loadBinary(binaryFile, true));
+        report("yml, TimestampCodec", () -> loadYaml(yamlFile));
+        report("legacy yml, DateFormat per reason", () -> loadLegacyYaml(legacyFile));
+    }
+
+    private static Map<String,WatchlistEntry> createEntries(int count) {
+        Random random = new Random(1);
+        long now = System.currentTimeMillis();
+        Map<String,WatchlistEntry> entries = new LinkedHashMap<>(count * 4 / 3 + 1);
+        for(int i = 0; i < count; i++) {
+            String name = "Player" + i;
+            List<WatchlistReason> reasons = new ArrayList<>();
+            for(int j = 0; j < REASONS_PER_ENTRY; j++) {
+                // whole seconds, the legacy format has no milliseconds
+                reasons.add(new WatchlistReason(new Date((now - random.nextInt(1_000_000_000)) / 1000 * 1000),
+                        "griefing near spawn, reported by a builder " + j, "Moderator" + random.nextInt(20), name,
+                        random.nextBoolean()));
+            }
+            WatchlistPlayerData data = new WatchlistPlayerData(new UUID(random.nextLong(), random.nextLong()),
+                    "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256), false, reasons);
+            entries.put(name, WatchlistEntry.of(name, data));
+        }
+        return entries;
+    }
+
+    private static int loadLegacyYaml(File file) {
+        YamlBridge yaml = new YamlBridge();
+        yaml.load(file);
+        int reasons = 0;
+        for(Object value: yaml.getMap().values()) {
+            List<Map<String,Object>> reasonData = (List<Map<String,Object>>) ((Map<String,Object>) value).get("reasons");
+            for(Map<String,Object> reason: reasonData) {
+                try {
+                    DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US)
+                              .parse((String) reason.get("creationTime"));
+                    reasons++;
+                } catch (ParseException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        }
+        return reasons;
+    }
+
+    private static int loadYaml(File file) {
+        YamlBridge yaml = new YamlBridge();
+        yaml.load(file);
+        int reasons = 0;
+        for(Object value: yaml.getMap().values()) {
+            reasons += new WatchlistPlayerData((Map<String,Object>) value).getReasonCount();
+        }
+        return reasons;
+    }
+
+    private static int loadBinary(File file, boolean loadReasons) {
+        WatchlistBinaryFormat.SnapshotFile snapshot = new WatchlistBinaryFormat.SnapshotFile(file);
+        int[] reasons = new int[1];
+        try {
+            WatchlistBinaryFormat.read(snapshot, (name, data) -> reasons[0] += (loadReasons ? data.getReasons().size()
+                                                                                             : data.getReasonCount()));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            snapshot.close();
+        }
+        return reasons[0];
+    }
+
+    private static void benchmarkTimestamps(int count) {
+        Random random = new Random(2);
+        long now = System.currentTimeMillis();
+        Date[] dates = new Date[count];
+        String[] legacy = new String[count];
+        String[] iso = new String[count];
+        DateFormat legacyFormat = DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US);
+        for(int i = 0; i < count; i++) {
+            dates[i] = new Date((now - random.nextInt(1_000_000_000)) / 1000 * 1000);
+            legacy[i] = legacyFormat.format(dates[i]);
+            iso[i] = TimestampCodec.format(dates[i]);
+        }
+        System.out.println();
+        System.out.println("Timestamps, " + count + " values");
+        report("parse legacy, DateFormat per call", count, measure(() -> {
+            int checksum = 0;
+            for(String text: legacy) {
+                try {
+                    checksum += DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US)
+                                          .parse(text).hashCode();
+                } catch (ParseException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+            return checksum;
+        }));
+        report("parse legacy, TimestampCodec", count, measure(() -> parseAll(legacy)));
+        report("parse ISO-8601, TimestampCodec", count, measure(() -> parseAll(iso)));
+        report("format, DateFormat per call", count, measure(() -> {
+            int checksum = 0;
+            for(Date date: dates) {
+                checksum += DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US)
+                                      .format(date).length();
+            }
+            return checksum;
+        }));
+        report("format ISO-8601, TimestampCodec", count, measure(() -> {
+            int checksum = 0;
+            for(Date date: dates) {
+                checksum += TimestampCodec.format(date).length();
+            }
+            return checksum;
+        }));
+    }
+
+    private static int parseAll(String[] texts) {
+        int checksum = 0;
+        for(String text: texts) {
+            try {
+                checksum += TimestampCodec.parse(text).hashCode();
+            } catch (ParseException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Searches like WatchlistManager.searchWatchlist. The linear scan is the former selection of /watchlist list,
+     * which tested every name and sorted the matches afterwards.
+     */
+    private static void benchmarkSearch(int count) {
+        Random random = new Random(3);
+        Map<String,WatchlistPlayerData> watchlist = new HashMap<>();
+        NameTrigramIndex index = new NameTrigramIndex();
+        String letters = "abcdefghijklmnopqrstuvwxyz0123456789_";
+        for(int i = 0; i < count; i++) {
+            StringBuilder name = new StringBuilder();
+            for(int j = 3 + random.nextInt(14); j > 0; j--) {
+                char letter = letters.charAt(random.nextInt(letters.length()));
+                name.append(random.nextInt(4) == 0 ? Character.toUpperCase(letter) : letter);
+            }
+            watchlist.put(name.toString(), new WatchlistPlayerData(null, null,
+                    new WatchlistReason(new Date(), "test", "Moderator", name.toString(), true)));
+        }
+        WatchlistSnapshot snapshot = WatchlistSnapshot.of(watchlist);
+        snapshot.getEntries().forEach(entry -> index.add(entry.getName().toLowerCase()));
+        String[] queries = {"abc", "x_y", "mod", "qwer", "a1b2", "steve", "zzzzz"};
+        System.out.println();
+        System.out.println("Substring search, " + snapshot.size() + " names, queries " + Arrays.toString(queries));
+        report("linear scan and sort", queries.length, measure(() -> {
+            int matches = 0;
+            for(String query: queries) {
+                List<String> result = new ArrayList<>();
+                for(String name: watchlist.keySet()) {
+                    if(name.toLowerCase().contains(query)) {
+                        result.add(name);
+                    }
+                }
+                result.sort(String.CASE_INSENSITIVE_ORDER);
+                matches += result.size();
+            }
+            return matches;
+        }));
+        report("trigram index", queries.length, measure(() -> {
+            int matches = 0;
+            for(String query: queries) {
+                List<String> names = new ArrayList<>();
+                for(String name: index.getCandidates(query)) {
+                    if(name.contains(query) && snapshot.contains(name)) {
+                        names.add(name);
+                    }
+                }
+                Collections.sort(names);
+                List<WatchlistEntry> result = new ArrayList<>(names.size());
+                names.forEach(name -> result.add(snapshot.get(name)));
+                matches += result.size();
+            }
+            return matches;
+        }));
+    }
+
+    private interface Task {
+        int run();
+    }
+
+    /**
+     * @return fastest run in nanoseconds
+     */
+    private static long measure(Task task) {
+        sink += task.run();
+        long best = Long.MAX_VALUE;
+        for(int round = 0; round < ROUNDS; round++) {
+            System.gc();
+            long start = System.nanoTime();
+            sink += task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Measures a load, which may exceed the heap with the SnakeYAML object tree of a large file.
+     */
+    private static void report(String name, Task task) {
+        try {
+            System.out.println(String.format("  %-40s %10.1f ms", name, measure(task) / 1e6));
+        } catch (OutOfMemoryError error) {
+            System.out.println(String.format("  %-40s out of memory", name));
+        }
+    }
+
+    private static void report(String name, int operations, long nanos) {
+        System.out.println(String.format("  %-40s %10.1f ms %12.2f us/op", name, nanos / 1e6,
+                                         nanos / 1e3 / operations));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class WatchlistJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAfterTornRecordSurviveReplay() throws IOException {
+        File file = new File(folder.getRoot(), "watchlist.journal");
+        WatchlistJournal journal = new WatchlistJournal(file);
+        journal.replay(0, new Recorder());
+        journal.open();
+        journal.removePlayer("first");
+        journal.removePlayer("second");
+        journal.close();
+        long complete = file.length();
+
+        // crash while writing the third record: length prefix and part of the record only
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeInt(40);
+            out.writeLong(3);
+        }
+
+        journal = new WatchlistJournal(file);
+        Recorder recorder = new Recorder();
+        assertEquals(2, journal.replay(0, recorder));
+        assertEquals(Arrays.asList("first", "second"), recorder.removed);
+        assertEquals(complete, file.length());
+        journal.open();
+        journal.removePlayer("third");
+        journal.close();
+
+        recorder = new Recorder();
+        assertEquals(3, new WatchlistJournal(file).replay(0, recorder));
+        assertEquals(Arrays.asList("first", "second", "third"), recorder.removed);
+    }
+
+    @Test
+    public void corruptLengthIsCutOff() throws IOException {
+        File file = new File(folder.getRoot(), "watchlist.journal");
+        WatchlistJournal journal = new WatchlistJournal(file);
+        journal.open();
+        journal.removePlayer("first");
+        journal.close();
+        long complete = file.length();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeInt(-7);
+            out.writeInt(Integer.MAX_VALUE);
+        }
+
+        Recorder recorder = new Recorder();
+        assertEquals(1, journal.replay(0, recorder));
+        assertEquals(Collections.singletonList("first"), recorder.removed);
+        assertEquals(complete, file.length());
+    }
+
+    @Test
+    public void rotationDoesNotHideRecordsBehindTornTail() throws IOException {
+        File file = new File(folder.getRoot(), "watchlist.journal");
+        File rotated = new File(folder.getRoot(), "watchlist.journal.old");
+        WatchlistJournal journal = new WatchlistJournal(file);
+        journal.open();
+        journal.removePlayer("first");
+        journal.close();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeInt(40);
+        }
+        // a rotation from an earlier start whose snapshot was never written
+        assertTrue(file.renameTo(rotated));
+
+        journal = new WatchlistJournal(file);
+        journal.replay(0, new Recorder());
+        journal.open();
+        journal.removePlayer("second");
+        assertEquals(2, journal.rotate());
+        journal.removePlayer("third");
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        assertEquals(3, new WatchlistJournal(file).replay(0, recorder));
+        assertEquals(Arrays.asList("first", "second", "third"), recorder.removed);
+    }
+
+    private static class Recorder implements WatchlistChanges {
+
+        private final List<String> removed = new ArrayList<>();
+
+        @Override
+        public void addReason(String name, UUID uuid, String ip, WatchlistReason reason) {
+        }
+
+        @Override
+        public void removeReason(String name, int index, WatchlistReason reason) {
+        }
+
+        @Override
+        public void removePlayer(String name) {
+            removed.add(name);
+        }
+
+        @Override
+        public void bindUuid(String name, UUID uuid) {
+        }
+
+        @Override
+        public void rename(String oldName, String newName, boolean nameUnknown) {
+        }
+
+        @Override
+        public void merge(String source, String target) {
+        }
+    }
+}
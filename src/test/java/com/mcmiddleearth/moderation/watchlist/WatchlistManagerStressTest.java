@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs watchlist additions, removals, reason removals and joins with name changes, name collisions and merges of
+ * entries with the same uuid from many threads and checks that the manager doesn't deadlock and that the published
+ * snapshot, the indexes and the changes reported to the store agree afterwards.
+ */
+public class WatchlistManagerStressTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20000;
+
+    private static final int NAMES = 12;
+    private static final int UUIDS = 8;
+    private static final int IPS = 3;
+
+    private static final Map<String, ProxiedPlayer> onlineByName = new ConcurrentHashMap<>();
+    private static final Map<UUID, ProxiedPlayer> onlineByUuid = new ConcurrentHashMap<>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> names = new ArrayList<>();
+    private final List<UUID> uuids = new ArrayList<>();
+
+    @BeforeClass
+    public static void mockProxy() {
+        if(ProxyServer.getInstance() == null) {
+            ProxyServer proxy = mock(ProxyServer.class);
+            when(proxy.getPlayers()).thenAnswer(invocation -> onlineByName.values());
+            when(proxy.getPlayer(anyString())).thenAnswer(invocation
+                    -> onlineByName.get(invocation.<String>getArgument(0).toLowerCase()));
+            when(proxy.getPlayer(any(UUID.class))).thenAnswer(invocation
+                    -> onlineByUuid.get(invocation.<UUID>getArgument(0)));
+            ProxyServer.setInstance(proxy);
+        }
+    }
+
+    @AfterClass
+    public static void clearPlayers() {
+        onlineByName.clear();
+        onlineByUuid.clear();
+    }
+
+    @Before
+    public void createPlayers() {
+        for(int i = 0; i < NAMES; i++) {
+            // names differing only in case refer to the same watchlist entry
+            names.add(i % 3 == 0 ? "Player" + i : "player" + i);
+        }
+        for(int i = 0; i < UUIDS; i++) {
+            uuids.add(new UUID(42, i));
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void concurrentModificationsStayConsistent() throws Exception {
+        RecordingStore store = new RecordingStore();
+        WatchlistManager manager = new WatchlistManager(store, new File(folder.getRoot(), "knownplayers.dat"), 100);
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < THREADS; t++) {
+                long seed = t;
+                futures.add(executor.submit(() -> runOperations(manager, new Random(seed))));
+            }
+            executor.shutdown();
+            if(!executor.awaitTermination(90, TimeUnit.SECONDS)) {
+                fail("Watchlist modifications did not finish, possible deadlock:\n" + dumpDeadlocks());
+            }
+            for(Future<?> future: futures) {
+                future.get();
+            }
+            assertTrue("Store received out of order commits", store.errors.isEmpty());
+            assertConsistent(manager, store);
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private void runOperations(WatchlistManager manager, Random random) {
+        for(int i = 0; i < OPERATIONS; i++) {
+            String name = names.get(random.nextInt(NAMES));
+            switch(random.nextInt(6)) {
+                case 0:
+                case 1:
+                    manager.addWatchlist(name, null, "reason " + i);
+                    break;
+                case 2:
+                    manager.removeWatchlist(name);
+                    break;
+                case 3:
+                    manager.removeWatchlistReason(name, 0);
+                    break;
+                case 4:
+                    // join with a random uuid: name changes, name collisions and merges of entries with the same uuid
+                    ProxiedPlayer player = createPlayer(name, uuids.get(random.nextInt(UUIDS)),
+                                                        "10.0.0." + random.nextInt(IPS));
+                    login(manager, player);
+                    manager.addKnownPlayer(player);
+                    manager.updateWatchlist(player);
+                    break;
+                default:
+                    ProxiedPlayer online = onlineByName.get(name.toLowerCase());
+                    if(online != null) {
+                        logout(manager, online);
+                    }
+            }
+        }
+    }
+
+    private static synchronized void login(WatchlistManager manager, ProxiedPlayer player) {
+        ProxiedPlayer previous = onlineByName.get(player.getName().toLowerCase());
+        if(previous != null) {
+            logout(manager, previous);
+        }
+        ProxiedPlayer sameUuid = onlineByUuid.get(player.getUniqueId());
+        if(sameUuid != null) {
+            logout(manager, sameUuid);
+        }
+        onlineByName.put(player.getName().toLowerCase(), player);
+        onlineByUuid.put(player.getUniqueId(), player);
+        manager.addOnlinePlayer(player);
+    }
+
+    private static synchronized void logout(WatchlistManager manager, ProxiedPlayer player) {
+        onlineByName.remove(player.getName().toLowerCase(), player);
+        onlineByUuid.remove(player.getUniqueId(), player);
+        manager.removeOnlinePlayer(player);
+    }
+
+    private static ProxiedPlayer createPlayer(String name, UUID uuid, String ip) {
+        ProxiedPlayer player = mock(ProxiedPlayer.class);
+        when(player.getName()).thenReturn(name);
+        when(player.getUniqueId()).thenReturn(uuid);
+        when(player.getSocketAddress()).thenReturn(new InetSocketAddress(ip, 25565));
+        return player;
+    }
+
+    private void assertConsistent(WatchlistManager manager, RecordingStore store) {
+        WatchlistSnapshot snapshot = manager.getSnapshot();
+        Map<String, WatchlistPlayerData> watchlist = manager.getWatchlist();
+
+        assertEquals(watchlist.size(), snapshot.size());
+        for(Map.Entry<String, WatchlistPlayerData> entry: watchlist.entrySet()) {
+            WatchlistEntry published = snapshot.get(entry.getKey());
+            assertNotNull("Not published: " + entry.getKey(), published);
+            assertEquals(entry.getKey(), published.getName());
+            assertEquals(entry.getValue().getReasonCount(), published.getReasonCount());
+            assertEquals(entry.getValue().getUuid(), published.getUuid());
+            assertEquals(entry.getKey(), manager.getWatchlistName(entry.getKey().toUpperCase()));
+            assertEquals(entry.getKey(), manager.getName(entry.getValue()));
+        }
+
+        List<WatchlistEntry> sorted = snapshot.getSortedEntries();
+        assertEquals(snapshot.size(), sorted.size());
+        for(int i = 1; i < sorted.size(); i++) {
+            assertTrue(sorted.get(i - 1).getName().toLowerCase().compareTo(sorted.get(i).getName().toLowerCase()) < 0);
+        }
+
+        Set<String> allNames = new HashSet<>(watchlist.keySet());
+        allNames.addAll(names);
+        for(String name: allNames) {
+            boolean watched = snapshot.contains(name);
+            assertEquals("Tab completion index of " + name, watched,
+                         manager.getPlayerNames().contains(name, PlayerNameIndex.WATCHLIST));
+            assertEquals("Search index of " + name, watched, manager.searchWatchlist(name).stream()
+                    .anyMatch(entry -> entry.getName().equalsIgnoreCase(name)));
+        }
+
+        Set<ProxiedPlayer> expectedWatchedOnline = new HashSet<>();
+        onlineByName.forEach((name, player) -> {
+            if(snapshot.contains(name)) {
+                expectedWatchedOnline.add(player);
+            }
+        });
+        assertEquals(expectedWatchedOnline, new HashSet<>(manager.getOnlineWatchedPlayers()));
+
+        assertEquals("Reported changes differ from snapshot", store.getReasonCounts(), getReasonCounts(snapshot));
+        assertEquals(snapshot.getVersion(), store.lastVersion);
+    }
+
+    private static Map<String, Integer> getReasonCounts(WatchlistSnapshot snapshot) {
+        Map<String, Integer> result = new HashMap<>();
+        snapshot.getEntries().forEach(entry -> result.put(entry.getName(), entry.getReasonCount()));
+        return result;
+    }
+
+    private static String dumpDeadlocks() {
+        StringBuilder dump = new StringBuilder();
+        long[] ids = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+        ThreadInfo[] infos = (ids != null ? ManagementFactory.getThreadMXBean().getThreadInfo(ids, true, true)
+                                          : ManagementFactory.getThreadMXBean().dumpAllThreads(true, true));
+        for(ThreadInfo info: infos) {
+            dump.append(info);
+        }
+        return dump.toString();
+    }
+
+    /**
+     * Applies the reported changes to its own map of entries, so they can be compared with the published snapshot.
+     */
+    private static class RecordingStore implements WatchlistStore {
+
+        private final Map<String, String> keys = new HashMap<>();
+        private final Map<String, Integer> reasonCounts = new HashMap<>();
+        private final List<String> errors = new ArrayList<>();
+        private long lastVersion = -1;
+
+        @Override
+        public void load(EntryConsumer consumer, WatchlistChanges changes) {
+        }
+
+        @Override
+        public synchronized void commit(WatchlistSnapshot snapshot) {
+            if(snapshot.getVersion() <= lastVersion) {
+                errors.add("Version " + snapshot.getVersion() + " after " + lastVersion);
+            }
+            lastVersion = snapshot.getVersion();
+        }
+
+        @Override
+        public synchronized void saveAll(WatchlistSnapshot snapshot) {
+            keys.clear();
+            reasonCounts.clear();
+            snapshot.getEntries().forEach(entry -> {
+                keys.put(entry.getName().toLowerCase(), entry.getName());
+                reasonCounts.put(entry.getName().toLowerCase(), entry.getReasonCount());
+            });
+            commit(snapshot);
+        }
+
+        @Override
+        public synchronized void addReason(String name, UUID uuid, String ip, WatchlistReason reason) {
+            keys.putIfAbsent(name.toLowerCase(), name);
+            reasonCounts.merge(name.toLowerCase(), 1, Integer::sum);
+        }
+
+        @Override
+        public synchronized void removeReason(String name, int index, WatchlistReason reason) {
+            Integer count = reasonCounts.get(name.toLowerCase());
+            if(reason == null) {
+                errors.add("Removed reason " + index + " of " + name + " without the reason");
+            } else if(count == null || index >= count) {
+                errors.add("Removed missing reason " + index + " of " + name);
+            } else {
+                reasonCounts.put(name.toLowerCase(), count - 1);
+            }
+        }
+
+        @Override
+        public synchronized void removePlayer(String name) {
+            keys.remove(name.toLowerCase());
+            reasonCounts.remove(name.toLowerCase());
+        }
+
+        @Override
+        public synchronized void bindUuid(String name, UUID uuid) {
+        }
+
+        @Override
+        public synchronized void rename(String oldName, String newName, boolean nameUnknown) {
+            Integer count = reasonCounts.remove(oldName.toLowerCase());
+            keys.remove(oldName.toLowerCase());
+            if(count != null) {
+                keys.put(newName.toLowerCase(), newName);
+                reasonCounts.put(newName.toLowerCase(), count);
+            }
+        }
+
+        @Override
+        public synchronized void merge(String source, String target) {
+            Integer count = reasonCounts.remove(source.toLowerCase());
+            keys.remove(source.toLowerCase());
+            if(count != null) {
+                reasonCounts.merge(target.toLowerCase(), count, Integer::sum);
+            }
+        }
+
+        private synchronized Map<String, Integer> getReasonCounts() {
+            Map<String, Integer> result = new HashMap<>();
+            reasonCounts.forEach((name, count) -> result.put(keys.get(name), count));
+            return result;
+        }
+
+        @Override
+        public List<Map.Entry<String, WatchlistReason>> findByInitiator(String initiator) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<Map.Entry<String, WatchlistReason>> findSince(Date since) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
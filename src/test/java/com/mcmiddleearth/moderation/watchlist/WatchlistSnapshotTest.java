@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 MCME
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mcmiddleearth.moderation.watchlist;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class WatchlistSnapshotTest {
+
+    @Test
+    public void persistentTreeMatchesSortedMap() {
+        Random random = new Random(42);
+        Map<String,WatchlistPlayerData> initial = new HashMap<>();
+        TreeMap<String,WatchlistEntry> expected = new TreeMap<>();
+        for(int i = 0; i < 500; i++) {
+            initial.put("Player" + random.nextInt(2000), data());
+        }
+        WatchlistSnapshot snapshot = WatchlistSnapshot.of(initial);
+        for(WatchlistEntry entry: snapshot.getEntries()) {
+            expected.put(entry.getName().toLowerCase(), entry);
+        }
+        assertEquals(initial.size(), expected.size());
+        assertMatches(expected, snapshot);
+        for(int round = 0; round < 2000; round++) {
+            WatchlistSnapshot previous = snapshot;
+            List<WatchlistEntry> previousEntries = new ArrayList<>(previous.getSortedEntries());
+            Map<String,WatchlistEntry> changes = new HashMap<>();
+            for(int i = random.nextInt(5); i >= 0; i--) {
+                String name = "player" + random.nextInt(2000);
+                changes.put(name, random.nextBoolean() ? WatchlistEntry.of(name, data()) : null);
+            }
+            snapshot = previous.with(changes);
+            changes.forEach((name, entry) -> {
+                if(entry != null) {
+                    expected.put(name, entry);
+                } else {
+                    expected.remove(name);
+                }
+            });
+            assertEquals(previous.getVersion() + 1, snapshot.getVersion());
+            assertEquals(previousEntries, previous.getSortedEntries());
+            if(round % 100 == 0) {
+                assertMatches(expected, snapshot);
+            }
+        }
+        assertMatches(expected, snapshot);
+    }
+
+    private static void assertMatches(TreeMap<String,WatchlistEntry> expected, WatchlistSnapshot snapshot) {
+        assertEquals(expected.size(), snapshot.size());
+        assertEquals(new ArrayList<>(expected.values()), new ArrayList<>(snapshot.getSortedEntries()));
+        List<WatchlistEntry> sorted = snapshot.getSortedEntries();
+        int index = 0;
+        for(Map.Entry<String,WatchlistEntry> entry: expected.entrySet()) {
+            assertSame(entry.getValue(), sorted.get(index++));
+            assertSame(entry.getValue(), snapshot.get(entry.getKey().toUpperCase()));
+        }
+        assertNull(snapshot.get("notonwatchlist"));
+    }
+
+    private static WatchlistPlayerData data() {
+        return new WatchlistPlayerData(UUID.randomUUID(), "127.0.0.1",
+                new WatchlistReason(new Date(), "test", "Moderator", "Player", true));
+    }
+}